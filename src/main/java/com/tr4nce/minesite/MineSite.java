@@ -5,16 +5,15 @@ import com.tr4nce.minesite.command.MineSiteCMD;
 import com.tr4nce.minesite.config.Config;
 import com.tr4nce.minesite.service.HttpService;
 import com.tr4nce.minesite.service.MineSiteConfigService;
-import com.tr4nce.minesite.service.MineSiteRefreshService;
 import net.minecraft.client.Minecraft;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.common.MinecraftForge;
-import net.minecraftforge.eventbus.api.IEventBus;
+import net.minecraftforge.event.server.ServerStartingEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
-import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 
 import org.slf4j.Logger;
@@ -32,27 +31,26 @@ public class MineSite {
 
     public MineSite(FMLJavaModLoadingContext context) {
         MineSiteConfigService.init(MODID);
-        MineSiteRefreshService.init();
         MinecraftForge.EVENT_BUS.register(this);
         MinecraftForge.EVENT_BUS.register(MineSiteCMD.class);
         context.registerConfig(ModConfig.Type.COMMON, Config.SPEC);
 
-        IEventBus modBus = context.getModEventBus();
-        modBus.addListener(this::commonSetup);
-
+        MinecraftForge.EVENT_BUS.addListener(this::onServerStarting);
         MinecraftForge.EVENT_BUS.addListener(this::onServerStop);
     }
     
-    private void commonSetup(FMLCommonSetupEvent event) {
-        event.enqueueWork(() -> {
+    // HTTP 服务与游戏服务器同时启动和关闭，单人游戏中每次进入存档都会重新启动
+    private void onServerStarting(ServerStartingEvent event) {
+        if (httpService == null) {
             httpService = new HttpService();
             httpService.startServer();
-        });
+        }
     }
 
-    private void onServerStop(FMLCommonSetupEvent event) {
+    private void onServerStop(ServerStoppingEvent event) {
         if (httpService != null) {
             httpService.stopServer();
+            httpService = null;
         }
     }
 
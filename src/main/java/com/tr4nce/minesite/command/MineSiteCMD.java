@@ -23,6 +23,8 @@ import net.minecraftforge.eventbus.api.SubscribeEvent;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
+import java.util.List;
+
 public class MineSiteCMD {
     private static final Logger LOGGER = LogUtils.getLogger();
 
@@ -71,6 +73,16 @@ public class MineSiteCMD {
                                         .executes(MineSiteCMD::refreshSite)
                                 ))
 
+                        .then(Commands.literal("restore")
+                                .then(Commands.argument("name", StringArgumentType.string())
+                                        .executes(MineSiteCMD::restoreSite)
+                                ))
+
+                        .then(Commands.literal("cancel")
+                                .then(Commands.argument("name", StringArgumentType.string())
+                                        .executes(MineSiteCMD::cancelSite)
+                                ))
+
                         .then(Commands.literal("setSafetyPoint")
                                 .then(Commands.argument("name", StringArgumentType.string())
                                         .executes(MineSiteCMD::setSafetyPoint)
@@ -106,7 +118,16 @@ public class MineSiteCMD {
             return 0;
         }
 
+        // 检查是否与已有矿场重叠
+        List<String> overlapping = MineSiteRefreshService.findOverlappingSites(
+                selection.getDimensionName(), selection.pos1, selection.pos2);
+        if (!overlapping.isEmpty()) {
+            ctx.getSource().sendFailure(Component.literal("§c选区与已有矿场重叠: " + String.join(", ", overlapping)));
+            return 0;
+        }
+
         if (MineSiteConfigService.addNewSite(name, creator, selection.pos1, selection.pos2, selection.getDimensionName())) {
+            MineSiteRefreshService.addSiteArea(name, selection.getDimensionName(), selection.pos1, selection.pos2);
             ctx.getSource().sendSuccess(
                     () -> Component.literal("§a成功创建矿场: " + name + "\n§7请编辑配置文件完善细节"),
                     false
@@ -156,9 +177,6 @@ public class MineSiteCMD {
         // 启用矿场
         if (MineSiteConfigService.enableSite(name)) {
             try {
-                // 重载配置文件确保内存缓存更新
-                MineSiteConfigService.forceReloadConfig();
-
                 // 重载矿场刷新服务
                 MineSiteRefreshService.reloadSites();
 
@@ -190,9 +208,6 @@ public class MineSiteCMD {
         // 禁用矿场
         if (MineSiteConfigService.disableSite(name)) {
             try {
-                // 重载配置文件确保内存缓存更新
-                MineSiteConfigService.forceReloadConfig();
-
                 // 重载矿场刷新服务
                 MineSiteRefreshService.reloadSites();
 
@@ -224,9 +239,6 @@ public class MineSiteCMD {
         // 删除矿场
         if (MineSiteConfigService.deleteSite(name)) {
             try {
-                // 重载配置文件确保内存缓存更新
-                MineSiteConfigService.forceReloadConfig();
-
                 // 重载矿场刷新服务
                 MineSiteRefreshService.reloadSites();
 
@@ -278,14 +290,63 @@ public class MineSiteCMD {
 
         boolean ignoreTimeTable = true;
 
-        MineSiteRefreshService.forceRefreshSite(siteName, ignoreTimeTable);
-        ctx.getSource().sendSuccess(
-                () -> Component.literal("§a已安排刷新矿场: " + siteName),
-                false
-        );
+        switch (MineSiteRefreshService.forceRefreshSite(siteName, ignoreTimeTable)) {
+            case STARTED -> ctx.getSource().sendSuccess(
+                    () -> Component.literal("§a已安排刷新矿场: " + siteName),
+                    false
+            );
+            case MERGED -> ctx.getSource().sendSuccess(
+                    () -> Component.literal("§e矿场 " + siteName + " 已在刷新中，本次请求已合并"),
+                    false
+            );
+            case REJECTED -> {
+                String running = MineSiteRefreshService.getRunningOperation(siteName);
+                ctx.getSource().sendFailure(Component.literal(running == null
+                        ? "§c错误: 矿场 '" + siteName + "' 不存在或未启用"
+                        : "§c矿场 " + siteName + " 正在" + running + "，请先使用 /minesite cancel " + siteName + " 取消"));
+                return 0;
+            }
+        }
         return Command.SINGLE_SUCCESS;
     }
 
+    private static int restoreSite(CommandContext<CommandSourceStack> ctx) {
+        String siteName = StringArgumentType.getString(ctx, "name");
+        switch (MineSiteRefreshService.restoreSite(siteName, ctx.getSource())) {
+            case STARTED -> ctx.getSource().sendSuccess(
+                    () -> Component.literal("§a正在读取矿场 " + siteName + " 的最新快照..."),
+                    false
+            );
+            case MERGED -> ctx.getSource().sendSuccess(
+                    () -> Component.literal("§e矿场 " + siteName + " 已在恢复中"),
+                    false
+            );
+            case REJECTED -> {
+                String running = MineSiteRefreshService.getRunningOperation(siteName);
+                ctx.getSource().sendFailure(Component.literal(running == null
+                        ? "§c错误: 矿场 '" + siteName + "' 不存在"
+                        : "§c矿场 " + siteName + " 正在" + running + "，请先使用 /minesite cancel " + siteName + " 取消"));
+                return 0;
+            }
+        }
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int cancelSite(CommandContext<CommandSourceStack> ctx) {
+        String siteName = StringArgumentType.getString(ctx, "name");
+        if (MineSiteRefreshService.cancelSiteOperation(siteName)) {
+            ctx.getSource().sendSuccess(
+                    () -> Component.literal("§a已取消矿场 " + siteName + " 进行中的操作"),
+                    false
+            );
+            return Command.SINGLE_SUCCESS;
+        }
+        ctx.getSource().sendFailure(
+                Component.literal("§c矿场 '" + siteName + "' 没有进行中的操作")
+        );
+        return 0;
+    }
+
     private static int setSafetyPoint(CommandContext<CommandSourceStack> ctx) {
         // 只能由玩家执行
         if (!(ctx.getSource().getEntity() instanceof ServerPlayer player)) {
@@ -301,9 +362,8 @@ public class MineSiteCMD {
 
         // 尝试更新安全点配置
         if (MineSiteConfigService.setSafetyPoint(name, safetyPoint)) {
-            // 重载配置以确保更新生效
+            // 重载矿场刷新服务以确保更新生效
             try {
-                MineSiteConfigService.forceReloadConfig();
                 MineSiteRefreshService.reloadSites();
             } catch (Exception e) {
                 ctx.getSource().sendFailure(
@@ -336,6 +396,8 @@ public class MineSiteCMD {
                         "§a/minesite list §7- 查看所有矿场\n" +
                         "§a/minesite reload §7- §b重载配置文件§7（热重载）\n" +
                         "§a/minesite refresh <名称> §7- 立即刷新指定矿场\n" +
+                        "§a/minesite restore <名称> §7- 从最新的刷新前快照恢复矿场\n" +
+                        "§a/minesite cancel <名称> §7- 取消矿场进行中的刷新、开启或关闭\n" +
                         "§a/minesite help §7- 显示此帮助信息\n" +
                         "§b区域选择工具: §e" + Config.SELECTION_TOOL.get() + "\n"),
                 false
@@ -13,6 +13,17 @@ public class Config {
     public static final ForgeConfigSpec.ConfigValue<String> SELECTION_TOOL;
     public static final ForgeConfigSpec.ConfigValue<Integer> SERVER_PORT;
     public static final ForgeConfigSpec.ConfigValue<Integer> SITE_REFRESH_SPEED;
+    public static final ForgeConfigSpec.EnumValue<RefreshBudgetMode> REFRESH_BUDGET_MODE;
+    public static final ForgeConfigSpec.ConfigValue<Double> REFRESH_TICK_BUDGET_MS;
+    public static final ForgeConfigSpec.ConfigValue<Double> REFRESH_MSPT_THRESHOLD;
+    public static final ForgeConfigSpec.ConfigValue<Boolean> DIFFERENTIAL_REFRESH;
+    public static final ForgeConfigSpec.ConfigValue<Integer> SNAPSHOT_RETENTION;
+
+    // 刷新限流方式
+    public enum RefreshBudgetMode {
+        BLOCKS, // 每tick固定方块数量（所有矿场共享）
+        TIME    // 每tick固定耗时（毫秒）
+    }
 
     static {
         BUILDER.push("General Settings");
@@ -30,9 +41,29 @@ public class Config {
                 .defineInRange("serverPort", 8124, 1024, 65535);
 
         SITE_REFRESH_SPEED = BUILDER
-                .comment("Speed at which the site refreshes in seconds. Default is 60 seconds.")
+                .comment("Total number of blocks refreshed per tick, shared by all refreshing sites, when refreshBudgetMode is BLOCKS. Default is 100.")
                 .defineInRange("siteRefreshSpeed", 100, 1, Integer.MAX_VALUE);
 
+        REFRESH_BUDGET_MODE = BUILDER
+                .comment("How site refreshes are throttled. BLOCKS uses siteRefreshSpeed, TIME spends at most refreshTickBudgetMs of each tick.")
+                .defineEnum("refreshBudgetMode", RefreshBudgetMode.BLOCKS);
+
+        REFRESH_TICK_BUDGET_MS = BUILDER
+                .comment("Milliseconds of each server tick that MineSite may spend on refreshes in TIME mode. Default is 5 ms.")
+                .defineInRange("refreshTickBudgetMs", 5.0, 0.1, 50.0);
+
+        REFRESH_MSPT_THRESHOLD = BUILDER
+                .comment("Average MSPT above which the TIME budget shrinks automatically. Default is 50 ms.")
+                .defineInRange("refreshMsptThreshold", 50.0, 1.0, 1000.0);
+
+        DIFFERENTIAL_REFRESH = BUILDER
+                .comment("Only write blocks whose current state differs from the planned one, and skip sections that are already air when clearing.")
+                .define("differentialRefresh", true);
+
+        SNAPSHOT_RETENTION = BUILDER
+                .comment("Number of pre-refresh snapshots kept per site when a site has snapshot enabled. Older ones are deleted. Default is 3.")
+                .defineInRange("snapshotRetention", 3, 1, 100);
+
         BUILDER.pop();
 
         SPEC = BUILDER.build();
@@ -0,0 +1,110 @@
+package com.tr4nce.minesite.service;
+
+import com.google.gson.JsonObject;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 配置文件监视
+ * 在后台线程上监视配置文件所在目录，文件被外部修改时读取、解析并检查，
+ * 通过检查的配置交给回调（由回调转到服务器线程应用），无效的文件只记录日志，当前配置保持不变。
+ * 编辑器保存时往往连续产生多个事件，等到一段时间内没有新事件后才读取文件。
+ * 本模组自己写入的内容与上次同步的内容相同，会被忽略。
+ */
+class ConfigWatcher {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    // 最后一个事件之后等待的毫秒数
+    private static final long DEBOUNCE_MS = 1000;
+
+    private final Path file;
+    private final BiConsumer<String, JsonObject> onChange;
+    private final WatchService service;
+    private final Thread thread;
+
+    private ConfigWatcher(Path file, BiConsumer<String, JsonObject> onChange) throws IOException {
+        this.file = file;
+        this.onChange = onChange;
+        this.service = file.getFileSystem().newWatchService();
+        file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "MineSite-ConfigWatcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * 开始监视配置文件
+     * @param onChange 在监视线程上调用，参数为文件内容和解析后的配置
+     * @return 无法监视时返回 null
+     */
+    static ConfigWatcher start(Path file, BiConsumer<String, JsonObject> onChange) {
+        try {
+            ConfigWatcher watcher = new ConfigWatcher(file, onChange);
+            watcher.thread.start();
+            return watcher;
+        } catch (IOException e) {
+            LOGGER.error("无法监视配置文件 {}，修改后需要使用 /minesite reload 重载", file, e);
+            return null;
+        }
+    }
+
+    void stop() {
+        thread.interrupt();
+        try {
+            service.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!drain(service.take())) continue;
+                // 等待连续的保存事件结束
+                WatchKey key;
+                while ((key = service.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+                check();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 停止监视
+        }
+    }
+
+    // 取出目录的全部事件，返回其中是否有配置文件的事件
+    private boolean drain(WatchKey key) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                touched = true;
+            }
+        }
+        key.reset();
+        return touched;
+    }
+
+    private void check() {
+        String content;
+        try {
+            content = Files.readString(file);
+        } catch (IOException e) {
+            LOGGER.warn("读取修改后的配置文件失败: {}", e.getMessage());
+            return;
+        }
+        if (MineSiteConfigService.isSynced(content)) return;
+
+        JsonObject config;
+        try {
+            config = MineSiteConfigService.parseConfig(content);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("配置文件 {} 已被修改但内容无效，继续使用当前配置: {}", file.getFileName(), e.getMessage());
+            return;
+        }
+        LOGGER.info("检测到配置文件 {} 被修改，将重新加载", file.getFileName());
+        onChange.accept(content, config);
+    }
+}
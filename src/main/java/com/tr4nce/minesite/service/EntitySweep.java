@@ -0,0 +1,110 @@
+package com.tr4nce.minesite.service;
+
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.ExperienceOrb;
+import net.minecraft.world.entity.LivingEntity;
+import net.minecraft.world.entity.Mob;
+import net.minecraft.world.entity.item.ItemEntity;
+import net.minecraft.world.entity.monster.Enemy;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.entity.projectile.Projectile;
+import net.minecraft.world.entity.vehicle.AbstractMinecart;
+import net.minecraft.world.entity.vehicle.Boat;
+import net.minecraft.world.phys.AABB;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 写入方块前清理矿场区域内的实体
+ * 写入器第一次写入某个区块列之前，在区块及其实体加载完成后通过世界的实体分区存储查询该列内的实体，
+ * 因此刷新开始时尚未加载的区块同样会被清理，每个区块列只清理一次。
+ * 只移除掉落物、经验球、弹射物和会自然消失的敌对生物；其它生物、盔甲架和矿车、船等载具
+ * 移动到安全点，未配置安全点时留在原地，其余实体（例如物品展示框）保留。玩家由传送逻辑单独处理。
+ * 只在服务器线程访问。
+ */
+class EntitySweep {
+    // 每个区块列的固定开销，与每个实体一起计入刷新预算
+    private static final int COLUMN_COST = 256;
+
+    private final MineSiteUtils.RegionBounds bounds;
+    private final BlockPos safetyPoint;
+    // 已经清理过的区块列，与刷新计划的区块列编号一致
+    private final BitSet swept = new BitSet();
+    private int removed;
+    private int relocated;
+
+    /**
+     * @param safetyPoint 需要保留的实体的目的地，为 null 时这些实体留在原地
+     */
+    EntitySweep(MineSiteUtils.RegionBounds bounds, BlockPos safetyPoint) {
+        this.bounds = bounds;
+        this.safetyPoint = safetyPoint;
+    }
+
+    boolean isSwept(int column) {
+        return swept.get(column);
+    }
+
+    int getRemoved() {
+        return removed;
+    }
+
+    int getRelocated() {
+        return relocated;
+    }
+
+    /**
+     * 清理一个区块列，调用前该区块的实体必须已经加载
+     * @param column 刷新计划中的区块列编号
+     * @return 消耗的预算（以方块计）
+     */
+    int sweepColumn(ServerLevel level, int column, int chunkX, int chunkZ) {
+        swept.set(column);
+        AABB area = new AABB(
+                Math.max(bounds.getMinX(), chunkX << 4), bounds.getMinY(), Math.max(bounds.getMinZ(), chunkZ << 4),
+                Math.min(bounds.getMaxX(), (chunkX << 4) + 15) + 1, bounds.getMaxY() + 1,
+                Math.min(bounds.getMaxZ(), (chunkZ << 4) + 15) + 1);
+        List<Entity> entities = level.getEntities((Entity) null, area, EntitySweep::isSweepable);
+        for (Entity entity : entities) {
+            // 载具被移除时乘客会被放下，已经处理过的实体跳过
+            if (entity.isRemoved()) continue;
+            if (!isDebris(entity)) {
+                if (safetyPoint == null || !isMovable(entity)) continue;
+                entity.stopRiding();
+                entity.teleportTo(safetyPoint.getX() + 0.5, safetyPoint.getY(), safetyPoint.getZ() + 0.5);
+                relocated++;
+            } else {
+                entity.discard();
+                removed++;
+            }
+        }
+        return COLUMN_COST + entities.size();
+    }
+
+    // 玩家以及载有玩家的载具不在清理范围内
+    private static boolean isSweepable(Entity entity) {
+        if (entity instanceof Player) return false;
+        for (Entity passenger : entity.getIndirectPassengers()) {
+            if (passenger instanceof Player) return false;
+        }
+        return true;
+    }
+
+    // 可以直接移除的实体：掉落物、经验球、弹射物，以及没有名字、没有拴绳、不需要保留、会自然消失的敌对生物
+    private static boolean isDebris(Entity entity) {
+        if (entity instanceof ItemEntity || entity instanceof ExperienceOrb || entity instanceof Projectile) return true;
+        return entity instanceof Mob mob && mob instanceof Enemy
+                && !mob.hasCustomName() && !mob.isLeashed()
+                && !mob.isPersistenceRequired() && !mob.requiresCustomPersistence()
+                && mob.removeWhenFarAway(Double.MAX_VALUE);
+    }
+
+    // 移动到安全点的实体：生物（包括盔甲架）和载具
+    private static boolean isMovable(Entity entity) {
+        return entity instanceof LivingEntity || entity instanceof AbstractMinecart || entity instanceof Boat;
+    }
+}
@@ -30,6 +30,7 @@ public class HttpService {
             server.createContext("/api/open", new PostOnlyHandler());
             server.createContext("/api/close", new PostOnlyHandler());
             server.createContext("/api/refresh", new PostOnlyHandler());
+            server.createContext("/api/cancel", new PostOnlyHandler());
 
             server.start();
             logger.info("HTTP Server started on port {}", port);
@@ -102,24 +103,44 @@ public class HttpService {
                     // 处理 /api/open 路径的请求
                     name = json.get("name").getAsString();
                     delay = json.get("delay").getAsInt();
-                    MineSiteRefreshService.scheduleSiteOpenOrClose(name,true, delay);
-                    // 这里可以添加打开 URL 的逻辑
-                    return "{\"status\":\"success\", \"message\":\"Opened Site " + name + " with delay " + delay + "\"}";
+                    return scheduleResponse(name, MineSiteRefreshService.scheduleSiteOpenOrClose(name, true, delay),
+                            "Opened Site " + name + " with delay " + delay);
                 case "/api/close":
                     // 处理 /api/close 路径的请求
                     name = json.get("name").getAsString();
                     delay = json.get("delay").getAsInt();
-                    MineSiteRefreshService.scheduleSiteOpenOrClose(name,false, delay);
-                    return "{\"status\":\"success\", \"message\":\"Closed Site " + name + " with delay " + delay + "\"}";
+                    return scheduleResponse(name, MineSiteRefreshService.scheduleSiteOpenOrClose(name, false, delay),
+                            "Closed Site " + name + " with delay " + delay);
                 case "/api/refresh":
                     // 处理 /api/status 路径的请求
                     name = json.get("name").getAsString();
                     delay = json.get("delay").getAsInt();
-                    MineSiteRefreshService.scheduleRefreshWithDelay(name, delay);
-                    return "{\"status\":\"success\", \"message\":\"Refreshed Site " + name + " with delay " + delay + "\"}";
+                    return scheduleResponse(name, MineSiteRefreshService.scheduleRefreshWithDelay(name, delay),
+                            "Refreshed Site " + name + " with delay " + delay);
+                case "/api/cancel":
+                    // 取消矿场进行中的操作
+                    name = json.get("name").getAsString();
+                    if (MineSiteRefreshService.cancelSiteOperation(name)) {
+                        return "{\"status\":\"success\", \"message\":\"Cancelled operation on Site " + name + "\"}";
+                    }
+                    return "{\"status\":\"idle\", \"message\":\"No operation in progress on Site " + name + "\"}";
                 default:
                     throw new IllegalArgumentException("Unknown API endpoint: " + uri);
             }
         }
+
+        // 合并的请求不重复安排，冲突的请求返回正在进行的操作
+        private String scheduleResponse(String name, MineSiteRefreshService.ScheduleResult result, String message) {
+            return switch (result) {
+                case STARTED -> "{\"status\":\"success\", \"message\":\"" + message + "\"}";
+                case MERGED -> "{\"status\":\"merged\", \"message\":\"Same operation already in progress on Site " + name + "\"}";
+                case REJECTED -> {
+                    String running = MineSiteRefreshService.getRunningOperation(name);
+                    yield "{\"status\":\"rejected\", \"message\":\"" + (running == null
+                            ? "Site " + name + " is not available"
+                            : "Another operation (" + running + ") is in progress on Site " + name) + "\"}";
+                }
+            };
+        }
     }
 }
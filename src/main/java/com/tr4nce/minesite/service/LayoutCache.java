@@ -0,0 +1,237 @@
+package com.tr4nce.minesite.service;
+
+import com.google.gson.JsonObject;
+import com.mojang.logging.LogUtils;
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * 固定种子矿场的布局缓存
+ * 生成好的调色板索引按区块列顺序保存为紧凑的二进制文件，以种子和矿场配置哈希为键。
+ * 再次刷新时直接内存映射该文件并流式读入计划，完全跳过生成工作；
+ * 只有 pos1/pos2/mines 或种子变化时才会重新生成。
+ */
+class LayoutCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x4D534C43; // "MSLC"
+    private static final int VERSION = 1;
+    // 文件头：魔数、版本、种子、区域边界（6 个 int）、调色板大小
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 6 * 4 + 4;
+    private static final String DIRECTORY = "layouts";
+
+    // 布局文件路径
+    static Path pathFor(String siteName, long seed, String configHash) {
+        return directory().resolve(filePrefix(siteName) + seed + "-" + configHash + ".bin");
+    }
+
+    // 影响布局的配置项的哈希：区域范围和矿石配置
+    static String configHash(JsonObject site) {
+        String key = site.get("pos1").getAsString() + "|" + site.get("pos2").getAsString() + "|" + site.get("mines");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 尝试用缓存文件填充计划
+     * @return 读取计划待处理区块列的准备过程；文件不存在或与计划不匹配时返回 null
+     */
+    static RefreshPlanner.Preparation tryLoad(Path path, long seed, RefreshPlan plan) {
+        if (!Files.isRegularFile(path)) return null;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long expectedSize = HEADER_SIZE + plan.getTotalBlocks();
+            if (channel.size() != expectedSize) {
+                LOGGER.warn("布局缓存 {} 大小不匹配，将重新生成", path.getFileName());
+                return null;
+            }
+            // 映射在通道关闭后仍然有效
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+            if (!matchesHeader(buffer, seed, plan)) {
+                LOGGER.warn("布局缓存 {} 与当前配置不匹配，将重新生成", path.getFileName());
+                return null;
+            }
+
+            long[] offsets = columnOffsets(plan);
+            return RefreshPlanner.load(plan, column -> {
+                byte[] data = new byte[plan.getColumnSize(column)];
+                buffer.get(Math.toIntExact(offsets[column]), data);
+                return data;
+            });
+        } catch (IOException | RuntimeException e) {
+            // 超过 2GB 的布局无法整体映射，直接重新生成
+            LOGGER.warn("读取布局缓存 {} 失败，将重新生成: {}", path.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 边生成边写入的布局缓存
+     * 区块列生成后立即写到临时文件中对应的位置，全部写入后原子地替换缓存文件，并删除该矿场的旧缓存；
+     * 写入失败或计划被放弃时删除临时文件，不影响刷新本身。
+     */
+    static final class Writer implements RefreshPlanner.ColumnSink {
+        private final Path path;
+        private final Path temp;
+        private final String siteName;
+        private final long seed;
+        private final MineSiteUtils.RegionBounds bounds;
+        private final int paletteSize;
+        private final long[] offsets;
+        // 在第一次写入时打开
+        private FileChannel channel;
+        private boolean closed;
+
+        Writer(Path path, String siteName, long seed, RefreshPlan plan) {
+            this.path = path;
+            this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.siteName = siteName;
+            this.seed = seed;
+            this.bounds = plan.getBounds();
+            this.paletteSize = plan.getPaletteSize();
+            this.offsets = columnOffsets(plan);
+        }
+
+        @Override
+        public synchronized void accept(int column, byte[] data) {
+            if (closed) return;
+            try {
+                if (channel == null) {
+                    Files.createDirectories(path.getParent());
+                    channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE);
+                    writeFully(header(), 0);
+                }
+                writeFully(ByteBuffer.wrap(data), offsets[column]);
+            } catch (IOException e) {
+                LOGGER.error("写入矿场 {} 的布局缓存失败", siteName, e);
+                abort();
+            }
+        }
+
+        @Override
+        public synchronized void commit() {
+            if (closed || channel == null) return;
+            closed = true;
+            try {
+                channel.close();
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.error("写入矿场 {} 的布局缓存失败", siteName, e);
+                deleteTemp();
+                return;
+            }
+            deleteStale(siteName, path);
+            LOGGER.info("已写入矿场 {} 的布局缓存: {}", siteName, path.getFileName());
+        }
+
+        @Override
+        public synchronized void abort() {
+            if (closed) return;
+            closed = true;
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            deleteTemp();
+        }
+
+        private ByteBuffer header() {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(seed);
+            header.putInt(bounds.getMinX());
+            header.putInt(bounds.getMinY());
+            header.putInt(bounds.getMinZ());
+            header.putInt(bounds.getMaxX());
+            header.putInt(bounds.getMaxY());
+            header.putInt(bounds.getMaxZ());
+            header.putInt(paletteSize);
+            return header.flip();
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private void deleteTemp() {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static boolean matchesHeader(ByteBuffer buffer, long seed, RefreshPlan plan) {
+        MineSiteUtils.RegionBounds bounds = plan.getBounds();
+        return buffer.getInt(0) == MAGIC
+                && buffer.getInt(4) == VERSION
+                && buffer.getLong(8) == seed
+                && buffer.getInt(16) == bounds.getMinX()
+                && buffer.getInt(20) == bounds.getMinY()
+                && buffer.getInt(24) == bounds.getMinZ()
+                && buffer.getInt(28) == bounds.getMaxX()
+                && buffer.getInt(32) == bounds.getMaxY()
+                && buffer.getInt(36) == bounds.getMaxZ()
+                && buffer.getInt(40) == plan.getPaletteSize();
+    }
+
+    // 各区块列数据在文件中的起始位置
+    private static long[] columnOffsets(RefreshPlan plan) {
+        long[] offsets = new long[plan.getColumnCount()];
+        long offset = HEADER_SIZE;
+        for (int column = 0; column < offsets.length; column++) {
+            offsets[column] = offset;
+            offset += plan.getColumnSize(column);
+        }
+        return offsets;
+    }
+
+    // 删除该矿场其它种子或配置对应的旧缓存
+    private static void deleteStale(String siteName, Path current) {
+        String prefix = filePrefix(siteName);
+        try (Stream<Path> files = Files.list(current.getParent())) {
+            files.filter(file -> !file.equals(current))
+                    .filter(file -> file.getFileName().toString().startsWith(prefix))
+                    .forEach(file -> {
+                        try {
+                            Files.deleteIfExists(file);
+                        } catch (IOException e) {
+                            LOGGER.warn("删除旧布局缓存 {} 失败: {}", file.getFileName(), e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            LOGGER.warn("清理矿场 {} 的旧布局缓存失败: {}", siteName, e.getMessage());
+        }
+    }
+
+    private static Path directory() {
+        return MineSiteConfigService.getDataDir().resolve(DIRECTORY);
+    }
+
+    // 文件名前缀，以点号与种子分隔
+    private static String filePrefix(String siteName) {
+        return MineSiteUtils.toFileName(siteName) + ".";
+    }
+}
@@ -0,0 +1,40 @@
+package com.tr4nce.minesite.service;
+
+import com.google.gson.JsonObject;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 当前加载的全部矿场，不可变
+ * 重载时在服务器线程上构建新的实例并整体替换，读取方（服务器线程、HTTP 线程和配置文件监视线程的回调）
+ * 取一次引用即可得到一致的视图，不需要加锁，也不会看到只更新了一半的配置。
+ *
+ * @param definitions 编译后的矿场
+ * @param settings 编译各矿场时使用的配置（不含记录项），重载时据此判断矿场是否变化
+ */
+record LoadedSites(Map<String, SiteDefinition> definitions, Map<String, JsonObject> settings) {
+    static final LoadedSites EMPTY = new LoadedSites(Map.of(), Map.of());
+
+    LoadedSites {
+        definitions = Map.copyOf(definitions);
+        settings = Map.copyOf(settings);
+    }
+
+    // 矿场不存在或配置无效时返回 null
+    SiteDefinition get(String siteName) {
+        return definitions.get(siteName);
+    }
+
+    boolean contains(String siteName) {
+        return definitions.containsKey(siteName);
+    }
+
+    Collection<SiteDefinition> all() {
+        return definitions.values();
+    }
+
+    int size() {
+        return definitions.size();
+    }
+}
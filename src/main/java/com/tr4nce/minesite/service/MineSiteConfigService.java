@@ -10,17 +10,53 @@ import org.slf4j.Logger;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+/**
+ * 矿场配置
+ * 内存中按名称索引的矿场表是配置的唯一来源，修改只更新内存并标记待保存。
+ * 短时间内的多次修改合并为一次写入，在后台线程上先写临时文件再原子替换配置文件，
+ * 服务器线程不会等待磁盘。矿场表可以在任意线程访问，访问时持有 LOCK。
+ */
 public class MineSiteConfigService {
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private static final Logger LOGGER = LogUtils.getLogger();
+    // 修改后延迟保存的毫秒数，期间的其它修改一起写入
+    private static final long SAVE_DELAY_MS = 500;
+    private static final ScheduledExecutorService IO = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "MineSite-Config");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Object LOCK = new Object();
+    // 按名称索引的矿场，保持配置文件中的顺序
+    private static final Map<String, JsonObject> sites = new LinkedHashMap<>();
+    // 配置文件中除矿场列表以外的内容
+    private static JsonObject rootProperties = new JsonObject();
+    private static final AtomicBoolean savePending = new AtomicBoolean();
+    // 最近一次读取或写入配置文件的内容
+    private static volatile String syncedContent;
     private static Path configPath;
-    private static JsonObject cachedConfig;
+    // 存放布局缓存等数据文件的目录
+    private static Path dataDir;
 
     public static void init(String modId) {
         configPath = FMLPaths.CONFIGDIR.get().resolve(modId + ".json");
+        dataDir = FMLPaths.CONFIGDIR.get().resolve(modId);
         createConfigIfMissing();
         loadConfig();
     }
@@ -43,23 +79,13 @@ public class MineSiteConfigService {
         }
     }
 
+    // 矿场名称已存在时返回 false
     public static boolean addNewSite(String name, String creator, BlockPos pos1, BlockPos pos2, String dimension) {
-        try {
-            // 读取现有配置
-            JsonObject config = GSON.fromJson(Files.readString(configPath), JsonObject.class);
-            JsonArray sites = config.getAsJsonArray("sites");
-
-            // 创建新站点
-            JsonObject newSite = createSiteTemplate(name, creator, pos1, pos2, dimension);
-
-            // 添加新站点
-            sites.add(newSite);
-
-            // 写回文件
-            Files.writeString(configPath, GSON.toJson(config));
-        } catch (IOException e) {
-            throw new RuntimeException("添加新站点失败", e);
+        synchronized (LOCK) {
+            if (sites.containsKey(name)) return false;
+            sites.put(name, createSiteTemplate(name, creator, pos1, pos2, dimension));
         }
+        scheduleSave();
         return true;
     }
 
@@ -73,8 +99,15 @@ public class MineSiteConfigService {
         site.addProperty("pos2", formatBlockPos(pos2));
         site.addProperty("safetyPoint", "");
         site.addProperty("status", "inactive"); // 初始状态为未激活
+        site.addProperty("priority", 1); // 全局刷新调度中的权重
+        site.addProperty("placement", "raw"); // 放置模式：full / no_updates（仍会调用 onPlace，会下落的方块改为直接写入）/ raw
+        site.addProperty("refreshMode", "full"); // 刷新模式：full 整体刷新 / mined 只回填被挖掘的方块
+        site.addProperty("backgroundRefill", false); // mined 模式下无人在场时在后台回填
+        site.addProperty("refreshAtDepletion", 0); // 被挖掘的百分比达到该值时自动刷新，0 为关闭
+        site.add("schedule", new JsonObject()); // 定时刷新：{"interval": "2h"} 或 {"cron": "0 4 * * *"}，为空时不定时刷新
+        site.addProperty("snapshot", false); // 刷新和清除前保存区域快照，可用 /minesite restore 恢复
 
-        // 默认矿石配置
+        // 默认矿石配置，每项可选 minY/maxY 限定出现的高度、cluster 指定矿脉大小
         JsonArray mines = new JsonArray();
         JsonObject defaultMine = new JsonObject();
         defaultMine.addProperty("block", "minecraft:stone");
@@ -92,33 +125,15 @@ public class MineSiteConfigService {
     }
 
     public static boolean deleteSite(String name) {
-        try {
-            // 读取现有配置
-            String content = Files.readString(configPath);
-            JsonObject config = GSON.fromJson(content, JsonObject.class);
-            JsonArray sites = config.getAsJsonArray("sites");
-            // 查找并删除指定站点
-            boolean found = false;
-            for (int i = 0; i < sites.size(); i++) {
-                JsonObject site = sites.get(i).getAsJsonObject();
-                if (site.get("name").getAsString().equals(name)) {
-                    sites.remove(i);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
+        synchronized (LOCK) {
+            if (sites.remove(name) == null) {
                 LOGGER.warn("尝试删除不存在的矿场: {}", name);
                 return false;
             }
-            // 写回文件
-            Files.writeString(configPath, GSON.toJson(config));
-            LOGGER.info("成功删除矿场: {}", name);
-            return true;
-        } catch (IOException e) {
-            LOGGER.error("删除矿场失败", e);
-            throw new RuntimeException("删除站点失败: " + e.getMessage(), e);
         }
+        scheduleSave();
+        LOGGER.info("成功删除矿场: {}", name);
+        return true;
     }
 
     private static String formatBlockPos(BlockPos pos) {
@@ -130,96 +145,231 @@ public class MineSiteConfigService {
         return DateTimeFormatter.ISO_INSTANT.format(instant);
     }
 
-    // 强制重载配置
+    /**
+     * 强制重载配置，先写入尚未保存的修改
+     * @throws IllegalArgumentException 配置文件内容无效，此时当前配置保持不变
+     */
     public static void forceReloadConfig() {
-        // 重新加载配置
-        loadConfig();
+        flush().join();
+        String content;
+        try {
+            content = Files.readString(configPath);
+        } catch (IOException e) {
+            throw new RuntimeException("加载配置文件失败", e);
+        }
+        applyConfig(content, parseConfig(content));
         LOGGER.info("强制重载配置文件成功");
     }
 
-    // 获取完整配置对象
+    public static Path getConfigPath() {
+        return configPath;
+    }
+
+    // 获取数据文件目录
+    public static Path getDataDir() {
+        return dataDir;
+    }
+
+    // 获取完整配置对象，矿场列表中是内存中的矿场对象
     public static JsonObject getFullConfig() throws IOException {
-        return cachedConfig;
+        synchronized (LOCK) {
+            return buildConfig();
+        }
+    }
+
+    // 所有矿场配置，按配置文件中的顺序
+    public static List<JsonObject> getSites() {
+        synchronized (LOCK) {
+            return new ArrayList<>(sites.values());
+        }
+    }
+
+    public static JsonObject getSite(String siteName) {
+        synchronized (LOCK) {
+            return sites.get(siteName);
+        }
     }
 
     public static boolean enableSite(String siteName) {
-        try {
-            JsonObject config = getFullConfig();
-            JsonArray sites = config.getAsJsonArray("sites");
-
-            for (JsonElement element : sites) {
-                JsonObject site = element.getAsJsonObject();
-                if (siteName.equals(site.get("name").getAsString())) {
-                    site.addProperty("status", "active");
-                    site.addProperty("lastUpdateTime", formatCurrentTime());
-                    saveConfig(config);
-                    LOGGER.info("矿场 {} 已启用", siteName);
-                    return true;
-                }
-            }
-            LOGGER.warn("启用矿场时未找到矿场: {}", siteName);
-        } catch (IOException e) {
-            LOGGER.error("启用矿场失败", e);
+        if (updateSite(siteName, site -> {
+            site.addProperty("status", "active");
+            site.addProperty("lastUpdateTime", formatCurrentTime());
+        })) {
+            LOGGER.info("矿场 {} 已启用", siteName);
+            return true;
         }
+        LOGGER.warn("启用矿场时未找到矿场: {}", siteName);
         return false;
     }
-    
+
     public static boolean setSafetyPoint(String siteName, String safetyPointString) {
+        BlockPos safetyPoint;
         try {
-            BlockPos safetyPoint = MineSiteUtils.parseBlockPos(safetyPointString);
-            JsonObject config = getFullConfig();
-            JsonArray sites = config.getAsJsonArray("sites");
-
-            for (JsonElement element : sites) {
-                JsonObject site = element.getAsJsonObject();
-                if (siteName.equals(site.get("name").getAsString())) {
-                    site.addProperty("safetyPoint", formatBlockPos(safetyPoint));
-                    site.addProperty("lastUpdateTime", formatCurrentTime());
-                    saveConfig(config);
-                    LOGGER.info("矿场 {} 的安全点已设置为 {}", siteName, formatBlockPos(safetyPoint));
-                    return true;
-                }
-            }
-            LOGGER.warn("设置安全点时未找到矿场: {}", siteName);
-        } catch (IOException e) {
+            safetyPoint = MineSiteUtils.parseBlockPos(safetyPointString);
+        } catch (Exception e) {
             LOGGER.error("设置安全点失败", e);
+            return false;
+        }
+        if (updateSite(siteName, site -> {
+            site.addProperty("safetyPoint", formatBlockPos(safetyPoint));
+            site.addProperty("lastUpdateTime", formatCurrentTime());
+        })) {
+            LOGGER.info("矿场 {} 的安全点已设置为 {}", siteName, formatBlockPos(safetyPoint));
+            return true;
+        }
+        LOGGER.warn("设置安全点时未找到矿场: {}", siteName);
+        return false;
+    }
+
+    // 记录矿场最近一次按时间表刷新的时间
+    public static boolean updateLastRefreshTime(String siteName, Instant time) {
+        if (updateSite(siteName, site -> site.addProperty("lastRefreshTime", DateTimeFormatter.ISO_INSTANT.format(time)))) {
+            return true;
         }
+        LOGGER.warn("更新刷新时间时未找到矿场: {}", siteName);
         return false;
     }
 
     public static boolean disableSite(String siteName) {
+        if (updateSite(siteName, site -> {
+            site.addProperty("status", "inactive");
+            site.addProperty("lastUpdateTime", formatCurrentTime());
+        })) {
+            LOGGER.info("矿场 {} 已禁用", siteName);
+            return true;
+        }
+        LOGGER.warn("关闭矿场时未找到矿场: {}", siteName);
+        return false;
+    }
+
+    // 在锁内修改矿场并安排保存，矿场不存在时返回 false
+    private static boolean updateSite(String siteName, Consumer<JsonObject> update) {
+        synchronized (LOCK) {
+            JsonObject site = sites.get(siteName);
+            if (site == null) return false;
+            update.accept(site);
+        }
+        scheduleSave();
+        return true;
+    }
+
+    // 安排一次延迟保存，已有待保存的修改时与其合并
+    private static void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            IO.schedule(MineSiteConfigService::saveIfPending, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 立即写入尚未保存的修改，返回写入完成时结束的 Future
+    public static CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(MineSiteConfigService::saveIfPending, IO);
+    }
+
+    // 只在配置线程上执行
+    private static void saveIfPending() {
+        // 先清除标记，序列化之后的修改会安排下一次保存
+        if (!savePending.compareAndSet(true, false)) return;
+        String content;
+        synchronized (LOCK) {
+            content = GSON.toJson(buildConfig());
+        }
+        // 监视线程看到与此相同的内容时不会当作外部修改
+        syncedContent = content;
+        Path temp = configPath.resolveSibling(configPath.getFileName() + ".tmp");
         try {
-            JsonObject config = getFullConfig();
-            JsonArray sites = config.getAsJsonArray("sites");
-
-            for (JsonElement element : sites) {
-                JsonObject site = element.getAsJsonObject();
-                if (siteName.equals(site.get("name").getAsString())) {
-                    site.addProperty("status", "inactive");
-                    site.addProperty("lastUpdateTime", formatCurrentTime());
-                    saveConfig(config);
-                    LOGGER.info("矿场 {} 已禁用", siteName);
-                    return true;
-                }
-            }
-            LOGGER.warn("关闭矿场时未找到矿场: {}", siteName);
+            Files.writeString(temp, content);
+            Files.move(temp, configPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
-            LOGGER.error("禁用矿场失败", e);
+            LOGGER.error("保存配置文件失败", e);
         }
-        return false;
     }
 
-    // 保存配置
-    public static void saveConfig(JsonObject config) throws IOException {
-        Files.writeString(configPath, GSON.toJson(config));
+    // 调用方需持有 LOCK
+    private static JsonObject buildConfig() {
+        JsonObject config = rootProperties.deepCopy();
+        JsonArray array = new JsonArray();
+        sites.values().forEach(array::add);
+        config.add("sites", array);
+        return config;
     }
 
+    // 启动时读取配置文件，只要求 JSON 格式正确，无效的矿场在编译时跳过
     public static void loadConfig() {
+        String content;
+        JsonObject config;
         try {
-            cachedConfig = GSON.fromJson(Files.readString(configPath), JsonObject.class);
-            LOGGER.info("配置文件加载成功");
+            content = Files.readString(configPath);
+            config = GSON.fromJson(content, JsonObject.class);
         } catch (IOException e) {
             throw new RuntimeException("加载配置文件失败", e);
         }
+        applyConfig(content, config);
+    }
+
+    /**
+     * 解析并检查配置文件内容，可以在任意线程调用
+     * 要求 JSON 格式正确、矿场名称不重复，并且每个矿场的名称、维度、区域和矿石列表有效
+     * @throws IllegalArgumentException 内容无效，异常信息说明原因
+     */
+    static JsonObject parseConfig(String content) {
+        JsonObject config;
+        try {
+            config = GSON.fromJson(content, JsonObject.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("JSON 格式错误: " + e.getMessage(), e);
+        }
+        if (config == null || !config.has("sites") || !config.get("sites").isJsonArray()) {
+            throw new IllegalArgumentException("缺少 sites 列表");
+        }
+        Set<String> names = new HashSet<>();
+        int index = 0;
+        for (JsonElement element : config.getAsJsonArray("sites")) {
+            if (!element.isJsonObject()) {
+                throw new IllegalArgumentException("sites 中第 " + (index + 1) + " 项不是对象");
+            }
+            JsonObject site = element.getAsJsonObject();
+            try {
+                SiteDefinition.validate(site);
+            } catch (IllegalArgumentException e) {
+                String name = site.has("name") ? site.get("name").getAsString() : "第 " + (index + 1) + " 项";
+                throw new IllegalArgumentException("矿场 " + name + ": " + e.getMessage(), e);
+            }
+            if (!names.add(site.get("name").getAsString())) {
+                throw new IllegalArgumentException("矿场名称重复: " + site.get("name").getAsString());
+            }
+            index++;
+        }
+        return config;
+    }
+
+    // 内容是否与上次读取或写入配置文件的内容相同
+    static boolean isSynced(String content) {
+        return content.equals(syncedContent);
+    }
+
+    /**
+     * 用文件中的配置替换内存中的矿场表
+     * 文件被外部修改时以文件为准，尚未保存的修改被丢弃
+     */
+    static void applyConfig(String content, JsonObject config) {
+        Map<String, JsonObject> loaded = new LinkedHashMap<>();
+        for (JsonElement element : config.getAsJsonArray("sites")) {
+            JsonObject site = element.getAsJsonObject();
+            String name = site.get("name").getAsString();
+            if (loaded.putIfAbsent(name, site) != null) {
+                LOGGER.warn("配置文件中存在重复的矿场名称 {}，已忽略后出现的配置", name);
+            }
+        }
+        config.remove("sites");
+        synchronized (LOCK) {
+            rootProperties = config;
+            sites.clear();
+            sites.putAll(loaded);
+            syncedContent = content;
+            if (savePending.getAndSet(false)) {
+                LOGGER.warn("配置文件已被外部修改，丢弃尚未保存的修改");
+            }
+        }
+        LOGGER.info("配置文件加载成功");
     }
 }
@@ -1,11 +1,8 @@
 package com.tr4nce.minesite.service;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.mojang.logging.LogUtils;
 import com.tr4nce.minesite.MineSite;
-import com.tr4nce.minesite.config.Config;
 import com.tr4nce.minesite.utils.MineSiteUtils;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.core.BlockPos;
@@ -16,145 +13,198 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
-import net.minecraft.world.level.block.state.BlockState;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
-import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.server.ServerLifecycleHooks;
 import org.slf4j.Logger;
 
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Mod.EventBusSubscriber(modid = MineSite.MODID)
 public class MineSiteRefreshService {
     // 矿场刷新任务队列
-    private static final Map<String, Queue<BlockPos>> siteRefreshQueues = new ConcurrentHashMap<>();
-    // 矿场方块状态映射
-    private static final Map<String, Map<BlockPos, BlockState>> siteBlockStates = new ConcurrentHashMap<>();
-    // 矿场配置缓存
-    private static final Map<String, JsonObject> siteConfigs = new ConcurrentHashMap<>();
-    // 矿场维度缓存
-    private static final Map<String, ResourceKey<Level>> siteDimensions = new ConcurrentHashMap<>();
+    private static final Map<String, RefreshPlan> siteRefreshQueues = new ConcurrentHashMap<>();
+    // 当前加载的矿场，重载时整体替换，任意线程可以直接读取
+    private static volatile LoadedSites sites = LoadedSites.EMPTY;
+    // 每个矿场进行中的操作，用于合并重复请求和取消
+    private static final SiteOperations operations = new SiteOperations();
+    // 矿场区域的空间索引，配置变化时增量更新
+    private static final SiteIndex siteIndex = new SiteIndex();
     // 跟踪已经清除的矿场区域
     private static final Set<String> clearedSites = ConcurrentHashMap.newKeySet();
     private static final Logger LOGGER = LogUtils.getLogger();
-    private static final Object reloadLock = new Object();
     private static final Map<String, RefreshMetrics> refreshMetrics = new ConcurrentHashMap<>();
+    // 激活矿场的挖掘记录，仅在服务器线程修改
+    private static final Map<String, MinedBlocks> minedBlocks = new ConcurrentHashMap<>();
+    // 定时刷新时间表，仅在服务器线程访问
+    private static final RefreshTimetable timetable = new RefreshTimetable();
+    // 各刷新任务最近一次写入检查点时的进度
+    private static final Map<String, Long> checkpointedProgress = new ConcurrentHashMap<>();
+    // 全局公平调度器，仅在服务器线程访问
+    private static final RefreshScheduler scheduler = new RefreshScheduler();
+    // 服务器运行期间监视配置文件的外部修改
+    private static ConfigWatcher configWatcher;
+    // 刷新前倒计时的秒数
+    private static final int COUNTDOWN_SECONDS = 10;
+    // 刷新检查点的写入间隔（tick）
+    private static final int CHECKPOINT_INTERVAL_TICKS = 100;
+    // 检查是否需要后台回填的间隔（tick）
+    private static final int BACKGROUND_REFILL_INTERVAL_TICKS = 200;
+    // 只用于记录、不影响矿场行为的配置项，变化时不算作矿场变化
+    private static final Set<String> RECORD_KEYS = Set.of("description", "creator", "createTime", "lastUpdateTime", "lastRefreshTime");
+
+    // 安排矿场操作的结果
+    public enum ScheduleResult {
+        // 已安排
+        STARTED,
+        // 同类操作正在进行，本次请求已合并
+        MERGED,
+        // 矿场不可用或有冲突的操作正在进行
+        REJECTED
+    }
 
     // 刷新性能指标类
     private static class RefreshMetrics {
         long startTime;          // 刷新开始时间
-        long prepareTime;        // 准备阶段耗时
-        int totalBlocks;         // 总方块数量
-        int blocksProcessed;     // 已处理方块数量
+        volatile long prepareTime; // 准备全部区块列的耗时，与写入重叠（由后台线程写入）
+        long totalBlocks;        // 总方块数量
+        long blocksProcessed;    // 已处理方块数量
         int ticksTaken;          // 消耗的tick数量
+        long firstBlockTime;     // 第一次分到预算的时间
+        int waitTicks;           // 有待处理工作却没有分到预算的tick数量
+        int lastTick;            // 最近一次处理的tick
     }
     
-    // 初始化矿场刷新服务
-    public static void init() {
-        synchronized (reloadLock) {
-            loadConfigs();
-        }
-    }
-
-    // 从配置文件加载所有矿场
-    private static void loadConfigs() {
-        siteConfigs.clear();
-        siteDimensions.clear();
-
-        try {
-            JsonObject config = MineSiteConfigService.getFullConfig();
-            JsonArray sites = config.getAsJsonArray("sites");
-
-            for (JsonElement element : sites) {
-                JsonObject site = element.getAsJsonObject();
-                String siteName = site.get("name").getAsString();
-                siteConfigs.put(siteName, site);
+    /**
+     * 从配置加载矿场，只编译新增或配置有变化的矿场，配置无效的矿场不会加载
+     * @return 新增、变化或移除的矿场及其变化前的定义，新增的矿场对应 null
+     */
+    private static Map<String, SiteDefinition> loadConfigs() {
+        LoadedSites current = sites;
+        Map<String, SiteDefinition> definitions = new HashMap<>();
+        Map<String, JsonObject> settingsByName = new HashMap<>();
+        Map<String, SiteDefinition> changed = new HashMap<>();
+
+        for (JsonObject site : MineSiteConfigService.getSites()) {
+            String siteName = site.has("name") ? site.get("name").getAsString() : "?";
+            JsonObject settings = site.deepCopy();
+            RECORD_KEYS.forEach(settings::remove);
+            SiteDefinition previous = current.get(siteName);
+            if (previous != null && settings.equals(current.settings().get(siteName))) {
+                definitions.put(siteName, previous);
+                settingsByName.put(siteName, settings);
+                continue;
+            }
+            changed.put(siteName, previous);
+            try {
+                SiteDefinition definition = SiteDefinition.compile(site);
+                definitions.put(siteName, definition);
+                settingsByName.put(siteName, settings);
+                siteIndex.put(siteName, definition.dimension(), definition.bounds());
                 LOGGER.info("Loaded Site Config: {}", siteName);
-
-                // 验证安全点配置
-                if (!site.has("safetyPoint")) {
-                    LOGGER.warn("矿场 {} 缺少安全点(safetyPoint)配置！", siteName);
-                } else {
-                    try {
-                        MineSiteUtils.parseBlockPos(site.get("safetyPoint").getAsString());
-                    } catch (Exception e) {
-                        LOGGER.error("矿场 {} 的安全点配置无效: {}", siteName, e.getMessage());
-                    }
-                }
-
-                // 解析维度
-                String dimStr = site.get("world").getAsString();
-                ResourceLocation dimLoc = ResourceLocation.tryParse(dimStr);
-                if (dimLoc != null) {
-                    siteDimensions.put(siteName, ResourceKey.create(
-                            net.minecraft.core.registries.Registries.DIMENSION,
-                            dimLoc
-                    ));
-                }
+            } catch (Exception e) {
+                LOGGER.error("矿场 {} 的配置无效，已跳过: {}", siteName, e.getMessage());
             }
-        } catch (Exception e) {
-            LOGGER.error("Failed to load sites from config", e);
         }
+
+        // 删除的矿场以及这次配置无效的矿场
+        current.definitions().forEach((siteName, previous) -> {
+            if (!definitions.containsKey(siteName)) {
+                changed.putIfAbsent(siteName, previous);
+            }
+        });
+        siteIndex.retainAll(definitions.keySet());
+        sites = new LoadedSites(definitions, settingsByName);
+        return changed;
     }
 
+    /**
+     * 重新加载矿场配置
+     * 只处理新增、变化和删除的矿场，其它矿场的刷新任务、挖掘记录和定时刷新保持不变。
+     * 区域、维度、状态或矿石配置变化的矿场取消进行中的任务；只有安全点、权重等选项变化时任务继续执行。
+     * 只能在服务器线程调用。
+     */
     public static void reloadSites() {
-        synchronized (reloadLock) {
-            LOGGER.info("开始重新加载矿场配置...");
+        LOGGER.info("开始重新加载矿场配置...");
+        Map<String, SiteDefinition> changed = loadConfigs();
+
+        Instant now = Instant.now();
+        LoadedSites loaded = sites;
+        changed.forEach((siteName, previous) -> {
+            SiteDefinition site = loaded.get(siteName);
+            RefreshPlan plan = siteRefreshQueues.get(siteName);
+            if (plan != null && (site == null || previous == null || !site.sameTarget(previous))) {
+                operations.finishPlan(siteName, plan);
+                stopSitePlan(siteName);
+                LOGGER.info("矿场 {} 的配置已变化，取消进行中的任务", siteName);
+            }
 
-            // 清除所有缓存
-            siteRefreshQueues.clear();
-            siteBlockStates.clear();
-            siteConfigs.clear();
-            siteDimensions.clear();
-            clearedSites.clear();
+            // 只保留区域未变化且仍然激活的矿场的挖掘记录
+            MinedBlocks mined = minedBlocks.get(siteName);
+            if (mined != null && (site == null || !site.isActive() || !site.bounds().equals(mined.getBounds()))) {
+                minedBlocks.remove(siteName);
+                RefreshCheckpoint.submit(() -> MinedBlocks.delete(siteName));
+            }
+            // 新增、重新激活或区域变化的矿场从现在开始跟踪挖掘，以便按挖掘比例触发刷新
+            if (site != null && site.isActive()) {
+                minedBlocks.computeIfAbsent(siteName, name -> MinedBlocks.startTracking(site.bounds()));
+            }
 
-            // 重新加载配置
-            loadConfigs();
+            timetable.remove(siteName);
+            if (site != null) {
+                scheduleTimetable(site, now);
+            }
+        });
 
-            LOGGER.info("矿场配置重载完成，共加载 {} 个矿场", siteConfigs.size());
-        }
+        LOGGER.info("矿场配置重载完成，共加载 {} 个矿场，{} 个矿场有变化", loaded.size(), changed.size());
     }
+
     /**
      * 安排延迟刷新矿场
      * @param siteName 矿场名称
      * @param delaySeconds 延迟时间（秒）
      */
-    public static void scheduleRefreshWithDelay(String siteName, long delaySeconds) {
+    public static ScheduleResult scheduleRefreshWithDelay(String siteName, long delaySeconds) {
         MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
-        if (server == null) return;
+        if (server == null) return ScheduleResult.REJECTED;
+        SiteOperations.Operation operation = operations.begin(siteName, SiteOperations.Kind.REFRESH);
+        if (operation == null) return resolveDuplicate(siteName, SiteOperations.Kind.REFRESH);
+
         String initialMsg = "§6矿场 " + siteName + " 将在 " + MineSiteUtils.secondsToTime(delaySeconds+10) + " 后刷新！请注意有序离开矿场区域。";
-        server.getPlayerList().broadcastSystemMessage(Component.literal(initialMsg), false);
+        // 可能由 HTTP 线程调用，所有操作都交给服务器线程执行
+        TickScheduler.schedule(0, () -> server.getPlayerList().broadcastSystemMessage(Component.literal(initialMsg), false));
 
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                startRefreshCountdown(siteName);
-                // 延迟10秒执行实际刷新
-                Timer refreshTimer = new Timer();
-                refreshTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        teleportPlayersFromSite(siteName);
-                        prepareSiteRefresh(siteName);
-                    }
-                }, 10000);
-            }
-        }, delaySeconds * 1000);
+        operation.track(TickScheduler.scheduleSeconds(delaySeconds, () -> {
+            startRefreshCountdown(siteName, operation);
+            // 倒计时结束后执行实际刷新
+            operation.track(TickScheduler.scheduleSeconds(COUNTDOWN_SECONDS, () -> {
+                teleportPlayersFromSite(siteName);
+                prepareSiteRefresh(siteName, operation);
+            }));
+        }));
 
         LOGGER.info("已安排矿场 {} 在 {} 秒后刷新", siteName, delaySeconds);
+        return ScheduleResult.STARTED;
     }
 
-    public static void scheduleSiteOpenOrClose(String siteName, boolean open, int delaySeconds) {
+    public static ScheduleResult scheduleSiteOpenOrClose(String siteName, boolean open, int delaySeconds) {
         MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
-        if (server == null) return;
+        if (server == null) return ScheduleResult.REJECTED;
+        SiteOperations.Kind kind = open ? SiteOperations.Kind.OPEN : SiteOperations.Kind.CLOSE;
+        SiteOperations.Operation operation = operations.begin(siteName, kind);
+        if (operation == null) return resolveDuplicate(siteName, kind);
+
         CommandSourceStack source = server.createCommandSourceStack()
                 .withPermission(4);
         String initialMsg;
@@ -165,197 +215,549 @@ public class MineSiteRefreshService {
             // 安排矿场关闭
             initialMsg = "§6矿场 " + siteName + " 将在 " + MineSiteUtils.secondsToTime(delaySeconds) + " 后关闭！请尽快离开矿场区域。";
         }
-        server.getPlayerList().broadcastSystemMessage(Component.literal(initialMsg), false);
-
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                String command = "minesite " + (open ? "enable" : "disable") + " " + siteName;
-                // 延迟10秒执行实际刷新
-                Timer refreshTimer = new Timer();
-                refreshTimer.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        server.getCommands().performPrefixedCommand(source, command);
-                    }
-                }, 10000);
+        // 可能由 HTTP 线程调用，所有操作都交给服务器线程执行
+        TickScheduler.schedule(0, () -> server.getPlayerList().broadcastSystemMessage(Component.literal(initialMsg), false));
+
+        String command = "minesite " + (open ? "enable" : "disable") + " " + siteName;
+        // 延迟结束后再等待 10 秒执行命令，命令中的刷新或清除接续该操作
+        operation.track(TickScheduler.scheduleSeconds(delaySeconds + COUNTDOWN_SECONDS, () -> {
+            server.getCommands().performPrefixedCommand(source, command);
+            // 命令执行失败（例如矿场不存在）时没有接续，直接结束操作
+            if (!operation.isContinued()) {
+                operations.finish(siteName, operation);
             }
-        }, delaySeconds * 1000L);
+        }));
+        return ScheduleResult.STARTED;
     }
 
-    public static void forceRefreshSite(String siteName, boolean ignoreTimeTable) {
-        JsonObject site = siteConfigs.get(siteName);
-        if (site == null) return;
+    // 矿场已有进行中的操作：同类操作合并，其它操作拒绝
+    private static ScheduleResult resolveDuplicate(String siteName, SiteOperations.Kind kind) {
+        SiteOperations.Operation running = operations.get(siteName);
+        if (running == null || running.getKind() == kind) {
+            LOGGER.info("矿场 {} 的{}已在进行中，合并重复请求", siteName, kind.getDisplayName());
+            return ScheduleResult.MERGED;
+        }
+        LOGGER.info("矿场 {} 正在{}，拒绝{}请求", siteName, running.getKind().getDisplayName(), kind.getDisplayName());
+        return ScheduleResult.REJECTED;
+    }
+
+    /**
+     * 矿场当前进行中的操作名称
+     * @return 没有进行中的操作时返回 null
+     */
+    public static String getRunningOperation(String siteName) {
+        SiteOperations.Operation running = operations.get(siteName);
+        return running == null ? null : running.getKind().getDisplayName();
+    }
+
+    /**
+     * 取消矿场进行中的操作
+     * 未执行的倒计时、传送和准备任务不再执行，正在写入的刷新或清除停止在当前位置。可以在任意线程调用
+     * @return 是否有可以取消的操作
+     */
+    public static boolean cancelSiteOperation(String siteName) {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null) return false;
+        SiteOperations.Operation operation = operations.cancel(siteName);
+        if (operation == null && !siteRefreshQueues.containsKey(siteName)) return false;
+
+        String name = operation == null ? SiteOperations.Kind.REFRESH.getDisplayName() : operation.getKind().getDisplayName();
+        TickScheduler.schedule(0, () -> {
+            stopSitePlan(siteName);
+            server.getPlayerList().broadcastSystemMessage(Component.literal("§e矿场 " + siteName + " 的" + name + "已取消"), false);
+        });
+        LOGGER.info("已取消矿场 {} 的{}", siteName, name);
+        return true;
+    }
+
+    // 停止矿场正在写入的任务，只能在服务器线程调用
+    private static void stopSitePlan(String siteName) {
+        RefreshPlan plan = siteRefreshQueues.remove(siteName);
+        if (plan != null) {
+            releasePlan(plan);
+            RefreshCheckpoint.delete(siteName);
+            refreshMetrics.remove(siteName);
+            checkpointedProgress.remove(siteName);
+        }
+        // 被取消的自动刷新可以再次按挖掘比例触发
+        MinedBlocks mined = minedBlocks.get(siteName);
+        if (mined != null) {
+            mined.resetRefreshRequest();
+        }
+    }
+
+    /**
+     * 强制刷新矿场
+     * @param ignoreTimeTable 为 false 时本次刷新视为按时间表的刷新，记录刷新时间并从现在开始计算下一次定时刷新
+     */
+    public static ScheduleResult forceRefreshSite(String siteName, boolean ignoreTimeTable) {
+        SiteDefinition site = sites.get(siteName);
+        if (site == null) return ScheduleResult.REJECTED;
 
         // 检查矿场状态
-        String status = site.get("status").getAsString();
-        if (!"active".equals(status)) {
+        if (!site.isActive()) {
             LOGGER.info("矿场 {} 未激活，跳过强制刷新", siteName);
-            return;
+            return ScheduleResult.REJECTED;
         }
+
+        // 即使本次被合并，定时刷新也要继续安排下一次
+        if (!ignoreTimeTable) {
+            Instant now = Instant.now();
+            MineSiteConfigService.updateLastRefreshTime(siteName, now);
+            timetable.reschedule(siteName, now);
+        }
+        SiteOperations.Operation operation = operations.begin(siteName, SiteOperations.Kind.REFRESH);
+        if (operation == null) return resolveDuplicate(siteName, SiteOperations.Kind.REFRESH);
+
         // 开始倒计时并安排刷新
-        startRefreshCountdown(siteName);
+        startRefreshCountdown(siteName, operation);
+
+        // 倒计时结束后执行实际刷新
+        operation.track(TickScheduler.scheduleSeconds(COUNTDOWN_SECONDS, () -> {
+            // 在刷新前传送玩家
+            teleportPlayersFromSite(siteName);
+            // 实际刷新逻辑
+            prepareSiteRefresh(siteName, operation);
+        }));
+        return ScheduleResult.STARTED;
+    }
+
+    // 准备矿场刷新，延迟开启时接续开启操作，已有刷新在进行时忽略
+    public static void prepareSiteRefresh(String siteName) {
+        SiteOperations.Operation operation = operations.continueWith(siteName, SiteOperations.Kind.OPEN);
+        if (operation == null) {
+            operation = operations.begin(siteName, SiteOperations.Kind.REFRESH);
+        }
+        if (operation == null) {
+            resolveDuplicate(siteName, SiteOperations.Kind.REFRESH);
+            return;
+        }
+        prepareSiteRefresh(siteName, operation);
+    }
 
+    private static void prepareSiteRefresh(String siteName, SiteOperations.Operation operation) {
         // 延迟10秒执行实际刷新
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                // 在刷新前传送玩家
-                teleportPlayersFromSite(siteName);
-                // 实际刷新逻辑
-                prepareSiteRefresh(siteName);
+        operation.track(TickScheduler.scheduleSeconds(COUNTDOWN_SECONDS, () -> {
+            long prepareStart = System.nanoTime();
+
+            // 在刷新前传送玩家
+            teleportPlayersFromSite(siteName); // 新增传送逻辑
+
+            SiteDefinition site = sites.get(siteName);
+            if (site == null) {
+                operations.finish(siteName, operation);
+                return;
             }
-        }, 10000);
+
+            // 检查矿场状态
+            if (!site.isActive()) {
+                LOGGER.info("矿场 {} 未激活，跳过刷新", siteName);
+                operations.finish(siteName, operation);
+                return;
+            }
+
+            // 矿点开放，从已清除集合中移除
+            clearedSites.remove(siteName);
+
+            // 按区块列在后台线程池中并行生成调色板索引
+            RefreshPlan plan = RefreshPlan.withPalette(site.bounds(), site.palette().states());
+            plan.setPlacement(site.placement());
+            plan.setEntitySweep(new EntitySweep(site.bounds(), site.safetyPoint()));
+            attachSnapshot(site, plan);
+            attachMinedBlocks(site, plan);
+
+            startRefresh(site, plan, site.seed(), prepareStart);
+
+            // 记录日志
+            LOGGER.info("Scheduled refresh for mine site: {} with {} blocks", siteName, plan.getTotalBlocks());
+        }));
     }
 
-    // 准备矿场刷新
-    public static void prepareSiteRefresh(String siteName) {
-        // 延迟10秒执行实际刷新
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                long prepareStart = System.nanoTime();
-
-                // 在刷新前传送玩家
-                teleportPlayersFromSite(siteName); // 新增传送逻辑
-
-                JsonObject site = siteConfigs.get(siteName);
-                if (site == null) return;
-
-                // 检查矿场状态
-                String status = site.get("status").getAsString();
-                if (!"active".equals(status)) {
-                    LOGGER.info("矿场 {} 未激活，跳过刷新", siteName);
-                    return;
-                }
+    /**
+     * 关联挖掘记录
+     * 只回填模式且已有完整的挖掘记录时只回填被挖掘的位置；否则整体刷新，并从新的空记录开始跟踪
+     */
+    private static void attachMinedBlocks(SiteDefinition site, RefreshPlan plan) {
+        String siteName = site.name();
+        MinedBlocks mined = minedBlocks.get(siteName);
+        if (site.minedRefresh() && mined != null && mined.isComplete() && mined.getBounds().equals(plan.getBounds())) {
+            plan.setMined(mined, true);
+            plan.retainMinedColumns();
+            LOGGER.info("矿场 {} 只回填 {} 个被挖掘的方块", siteName, mined.getCount());
+            return;
+        }
+        mined = new MinedBlocks(plan.getBounds());
+        minedBlocks.put(siteName, mined);
+        plan.setMined(mined, false);
+    }
 
-                // 矿点开放，从已清除集合中移除
-                clearedSites.remove(siteName);
-
-                // 解析矿场位置
-                BlockPos pos1 = MineSiteUtils.parseBlockPos(site.get("pos1").getAsString());
-                BlockPos pos2 = MineSiteUtils.parseBlockPos(site.get("pos2").getAsString());
-
-                // 解析矿石配置
-                Map<BlockPos, BlockState> blockStates = new HashMap<>();
-                JsonArray mines = site.getAsJsonArray("mines");
-                List<WeightedBlock> weightedBlocks = parseWeightedBlocks(mines);
-
-                // 计算区域范围
-                MineSiteUtils.RegionBounds mineArea = MineSiteUtils.RegionBounds.fromCorners(pos1, pos2);
-
-                // 生成位置队列
-                Queue<BlockPos> positions = new LinkedList<>();
-                for (int x = mineArea.getMinX(); x <= mineArea.getMaxX(); x++) {
-                    for (int y = mineArea.getMinY(); y <= mineArea.getMaxY(); y++) {
-                        for (int z = mineArea.getMinZ(); z <= mineArea.getMaxZ(); z++) {
-                            BlockPos pos = new BlockPos(x, y, z);
-                            positions.add(pos);
-                            // 随机选择方块状态
-                            BlockState state = chooseRandomBlockState(weightedBlocks);
-                            blockStates.put(pos, state);
-                        }
+    // 登记刷新任务并在后台填充计划数据，已生成完成的区块列可以立即开始写入
+    private static void startRefresh(SiteDefinition site, RefreshPlan plan, Long seed, long prepareStart) {
+        String siteName = site.name();
+        // 创建性能指标
+        RefreshMetrics metrics = new RefreshMetrics();
+        metrics.startTime = prepareStart;
+        metrics.totalBlocks = plan.getTotalBlocks();
+        refreshMetrics.put(siteName, metrics);
+
+        registerPlan(siteName, plan);
+        preparePlanData(site, plan, seed)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        LOGGER.error("Failed to prepare refresh for site '{}'", siteName, error);
+                        // 与取消相同地清理任务，并允许再次按挖掘比例触发刷新；任务已被替换或取消时无需处理
+                        TickScheduler.schedule(0, () -> {
+                            operations.finishPlan(siteName, plan);
+                            if (siteRefreshQueues.get(siteName) == plan) {
+                                stopSitePlan(siteName);
+                            }
+                        });
+                        return;
                     }
-                }
+                    metrics.prepareTime = System.nanoTime() - prepareStart;
 
-                // 存储刷新任务
-                siteRefreshQueues.put(siteName, positions);
-                siteBlockStates.put(siteName, blockStates);
+                    // 记录准备阶段性能
+                    logRefresh(plan, "[PERF] Prepared refresh for site '{}': {} blocks, prepare took {} ms",
+                            siteName, plan.getTotalBlocks(), MineSiteUtils.nsToMs(metrics.prepareTime));
+                });
+    }
 
-                // 创建性能指标
-                RefreshMetrics metrics = new RefreshMetrics();
-                metrics.startTime = System.nanoTime();
-                metrics.prepareTime = metrics.startTime - prepareStart;
-                metrics.totalBlocks = positions.size();
-                refreshMetrics.put(siteName, metrics);
+    // 填充计划数据：配置了种子的矿场优先读取布局缓存，否则并行生成，区块列随写入进度分批准备
+    private static CompletableFuture<Void> preparePlanData(SiteDefinition site, RefreshPlan plan, Long seed) {
+        String siteName = site.name();
+        OreLayers sampler = site.palette().sampler();
+        if (seed == null) {
+            return RefreshPlanner.generate(plan, sampler, new SplittableRandom(), null).future();
+        }
 
-                // 记录准备阶段性能
-                LOGGER.info("[PERF] Prepared refresh for site '{}': {} blocks, prepare took {} ms",
-                        siteName, positions.size(), MineSiteUtils.nsToMs(metrics.prepareTime));
+        Path layout = LayoutCache.pathFor(siteName, seed, site.configHash());
+        RefreshPlanner.Preparation cached = LayoutCache.tryLoad(layout, seed, plan);
+        if (cached != null) {
+            LOGGER.info("矿场 {} 使用布局缓存 {}", siteName, layout.getFileName());
+            return cached.future();
+        }
+        // 只有生成全部区块列时才写入布局缓存，只回填或从检查点继续的任务只生成部分区块列
+        LayoutCache.Writer cache = plan.getPendingColumnCount() == plan.getColumnCount()
+                ? new LayoutCache.Writer(layout, siteName, seed, plan) : null;
+        return RefreshPlanner.generate(plan, sampler, new SplittableRandom(seed), cache).future();
+    }
 
-                // 记录日志
-                LOGGER.info("Scheduled refresh for mine site: {} with {} blocks", siteName, positions.size());
-            }
-        }, 10000); // 10秒延迟
+    // 登记刷新任务并立即写入检查点，替换掉的旧任务释放其区块票据
+    private static void registerPlan(String siteName, RefreshPlan plan) {
+        // 计划开始写入前记录进度，此时可以在任意线程读取；恢复任务不写检查点
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server != null && !plan.isRestore()) {
+            RefreshCheckpoint.save(captureCheckpoint(server, siteName, plan));
+            checkpointedProgress.put(siteName, plan.getBlocksVisited());
+        }
+        operations.attachPlan(siteName, plan);
+        RefreshPlan previous = siteRefreshQueues.put(siteName, plan);
+        if (previous != null) {
+            releasePlan(previous);
+        }
     }
 
-    // 清除矿场区域（设置为空气）
-    public static void clearSiteArea(String siteName) {
-        JsonObject site = siteConfigs.get(siteName);
-        if (site == null) return;
+    // 释放任务占用的区块票据，停止准备后续区块列，并结束任务的快照
+    private static void releasePlan(RefreshPlan plan) {
+        // 中途结束的任务也要检查已写入部分的光照
+        if (plan.getTicketLevel() != null) {
+            SectionBlockWriter.flushRelight(plan.getTicketLevel(), plan);
+        }
+        RefreshChunkLoader.releaseAll(plan);
+        if (plan.getPreparation() != null) {
+            plan.getPreparation().cancel();
+        }
+        if (plan.getSnapshot() != null) {
+            plan.getSnapshot().finish();
+        }
+    }
 
-        // 在清除前传送玩家
-        teleportPlayersFromSite(siteName);
+    // 矿场开启了快照时，为即将写入的任务记录区域原有内容
+    private static void attachSnapshot(SiteDefinition site, RefreshPlan plan) {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null || !site.snapshot()) return;
+        plan.setSnapshot(SiteSnapshot.begin(site.name(), server.getWorldData().getLevelName(),
+                site.dimension().location().toString(), plan.getBounds()));
+    }
 
-        // 解析矿场位置
-        BlockPos pos1 = MineSiteUtils.parseBlockPos(site.get("pos1").getAsString());
-        BlockPos pos2 = MineSiteUtils.parseBlockPos(site.get("pos2").getAsString());
+    /**
+     * 从矿场最新的快照恢复区域
+     * 快照在后台读取，然后与刷新一样按每 tick 的预算写回，快照中没有记录的位置保持不变
+     * @param source 接收结果的命令来源
+     */
+    public static ScheduleResult restoreSite(String siteName, CommandSourceStack source) {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        SiteDefinition site = sites.get(siteName);
+        if (server == null || site == null) return ScheduleResult.REJECTED;
+        SiteOperations.Operation operation = operations.begin(siteName, SiteOperations.Kind.RESTORE);
+        if (operation == null) return resolveDuplicate(siteName, SiteOperations.Kind.RESTORE);
+
+        SiteSnapshot.loadLatest(siteName, server.getWorldData().getLevelName()).whenComplete((restore, error) ->
+                operation.track(TickScheduler.schedule(0, () -> {
+                    if (error != null || restore == null) {
+                        operations.finish(siteName, operation);
+                        if (error != null) {
+                            LOGGER.error("读取矿场 {} 的快照失败", siteName, error);
+                        }
+                        source.sendFailure(Component.literal(error != null
+                                ? "§c读取矿场 " + siteName + " 的快照失败: " + (error.getCause() != null ? error.getCause() : error).getMessage()
+                                : "§c矿场 " + siteName + " 没有可用的快照"));
+                        return;
+                    }
+                    // 快照只能写回记录时的维度和区域，矿场配置已经改变时拒绝恢复
+                    SiteDefinition current = sites.get(siteName);
+                    String mismatch = current == null ? "矿场已被删除"
+                            : !current.dimension().location().toString().equals(restore.dimension())
+                            ? "快照记录的维度 " + restore.dimension() + " 与当前配置的维度 " + current.dimension().location() + " 不同"
+                            : !current.bounds().equals(restore.bounds())
+                            ? "快照记录的区域 " + describeBounds(restore.bounds()) + " 与当前配置的区域 " + describeBounds(current.bounds()) + " 不同"
+                            : null;
+                    if (mismatch != null) {
+                        operations.finish(siteName, operation);
+                        LOGGER.warn("拒绝从快照 {} 恢复矿场 {}: {}", restore.file().getFileName(), siteName, mismatch);
+                        source.sendFailure(Component.literal("§c无法从快照 " + restore.file().getFileName()
+                                + " 恢复矿场 " + siteName + ": " + mismatch));
+                        return;
+                    }
+                    teleportPlayersFromSite(siteName);
+                    // 恢复后的内容不是计划布局，原有挖掘记录不能再用于只回填，从现在开始重新跟踪
+                    if (minedBlocks.remove(siteName) != null) {
+                        RefreshCheckpoint.submit(() -> MinedBlocks.delete(siteName));
+                    }
+                    if (current.isActive()) {
+                        minedBlocks.put(siteName, MinedBlocks.startTracking(current.bounds()));
+                    }
+                    RefreshPlan plan = restore.plan();
+                    plan.setPlacement(current.placement());
+                    RefreshMetrics metrics = new RefreshMetrics();
+                    metrics.startTime = System.nanoTime();
+                    metrics.totalBlocks = plan.getTotalBlocks();
+                    refreshMetrics.put(siteName, metrics);
+                    registerPlan(siteName, plan);
+                    source.sendSuccess(() -> Component.literal("§a开始从快照 " + restore.file().getFileName()
+                            + " 恢复矿场 " + siteName), true);
+                    LOGGER.info("开始从快照 {} 恢复矿场 {}", restore.file().getFileName(), siteName);
+                })));
+        return ScheduleResult.STARTED;
+    }
+
+    private static String describeBounds(MineSiteUtils.RegionBounds bounds) {
+        return "(" + bounds.getMinX() + ", " + bounds.getMinY() + ", " + bounds.getMinZ() + ") - ("
+                + bounds.getMaxX() + ", " + bounds.getMaxY() + ", " + bounds.getMaxZ() + ")";
+    }
 
-        // 计算区域范围
-        MineSiteUtils.RegionBounds mineArea = MineSiteUtils.RegionBounds.fromCorners(pos1, pos2);
+    // 记录计划当前进度，任务类型、种子和配置哈希取自矿场配置
+    private static RefreshCheckpoint.Data captureCheckpoint(MinecraftServer server, String siteName, RefreshPlan plan) {
+        SiteDefinition site = sites.get(siteName);
+        boolean clear = plan.isUniform();
+        String kind = clear ? RefreshCheckpoint.KIND_CLEAR
+                : plan.isMinedOnly() ? RefreshCheckpoint.KIND_MINED : RefreshCheckpoint.KIND_REFRESH;
+        return RefreshCheckpoint.capture(siteName, server.getWorldData().getLevelName(), kind,
+                clear ? null : site.seed(), site.configHash(), plan);
+    }
 
-        // 生成位置队列
-        Queue<BlockPos> positions = new LinkedList<>();
-        Map<BlockPos, BlockState> blockStates = new HashMap<>();
-        BlockState airState = Blocks.AIR.defaultBlockState();
+    // 为有新进度的刷新任务写入检查点，并保存有变化的挖掘记录
+    private static List<CompletableFuture<Void>> saveCheckpoints(MinecraftServer server) {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        String world = server.getWorldData().getLevelName();
+        minedBlocks.forEach((siteName, mined) -> {
+            if (!mined.isModified()) return;
+            MinedBlocks snapshot = mined.snapshotForSave();
+            writes.add(RefreshCheckpoint.submit(() -> snapshot.save(siteName, world)));
+        });
+        siteRefreshQueues.forEach((siteName, plan) -> {
+            if (!sites.contains(siteName) || plan.isRestore()) return;
+            Long checkpointed = checkpointedProgress.put(siteName, plan.getBlocksVisited());
+            if (checkpointed != null && checkpointed == plan.getBlocksVisited()) return;
+            writes.add(RefreshCheckpoint.save(captureCheckpoint(server, siteName, plan)));
+        });
+        return writes;
+    }
 
-        for (int x = mineArea.getMinX(); x <= mineArea.getMaxX(); x++) {
-            for (int y = mineArea.getMinY(); y <= mineArea.getMaxY(); y++) {
-                for (int z = mineArea.getMinZ(); z <= mineArea.getMaxZ(); z++) {
-                    BlockPos pos = new BlockPos(x, y, z);
-                    positions.add(pos);
-                    blockStates.put(pos, airState);
-                }
+    // 根据矿场配置重建定时刷新时间表，停服期间错过的刷新合并为一次立即执行
+    private static void rebuildTimetable(Instant now) {
+        timetable.clear();
+        sites.all().forEach(site -> scheduleTimetable(site, now));
+    }
+
+    // 将激活且配置了定时刷新的矿场加入时间表
+    private static void scheduleTimetable(SiteDefinition site, Instant now) {
+        if (site.schedule() == null || !site.isActive()) return;
+        timetable.add(site.name(), site.schedule(), getLastRefreshTime(site.name(), now), now);
+    }
+
+    // 矿场最近一次按时间表刷新的时间，未记录或格式无效时视为 now
+    private static Instant getLastRefreshTime(String siteName, Instant now) {
+        // 刷新时间随时更新，从配置中读取而不是使用编译时的值
+        JsonObject site = MineSiteConfigService.getSite(siteName);
+        if (site == null || !site.has("lastRefreshTime")) return now;
+        try {
+            return Instant.parse(site.get("lastRefreshTime").getAsString());
+        } catch (Exception e) {
+            return now;
+        }
+    }
+
+    // 服务器启动后继续上次未完成的刷新
+    @SubscribeEvent
+    public static void onServerStarted(ServerStartedEvent event) {
+        MinecraftServer server = event.getServer();
+        // 方块注册表在服务器启动后才完整，矿场配置在此时编译
+        loadConfigs();
+        configWatcher = ConfigWatcher.start(MineSiteConfigService.getConfigPath(), MineSiteRefreshService::onConfigFileChanged);
+        rebuildTimetable(Instant.now());
+        String world = server.getWorldData().getLevelName();
+        List<RefreshCheckpoint.Data> checkpoints = RefreshCheckpoint.loadAll();
+
+        // 读取激活矿场的挖掘记录
+        sites.definitions().forEach((siteName, site) -> {
+            if (!site.isActive()) return;
+            MinedBlocks mined = MinedBlocks.load(siteName, world, site.bounds());
+            if (mined != null) {
+                minedBlocks.put(siteName, mined);
+            }
+        });
+
+        for (RefreshCheckpoint.Data data : checkpoints) {
+            // 其它存档的检查点保留给对应存档
+            if (!world.equals(data.world())) continue;
+            try {
+                resumeRefresh(data);
+            } catch (Exception e) {
+                LOGGER.error("恢复矿场 {} 的刷新失败", data.site(), e);
+                RefreshCheckpoint.delete(data.site());
             }
         }
 
-        // 存储清除任务
-        siteRefreshQueues.put(siteName, positions);
-        siteBlockStates.put(siteName, blockStates);
+        // 没有记录的激活矿场从现在开始跟踪挖掘，下一次刷新时整体刷新；在恢复检查点之后创建，
+        // 避免缺少记录的只回填检查点被当作没有被挖掘的方块
+        sites.definitions().forEach((siteName, site) -> {
+            if (site.isActive()) {
+                minedBlocks.computeIfAbsent(siteName, name -> MinedBlocks.startTracking(site.bounds()));
+            }
+        });
+    }
 
-        LOGGER.info("Scheduled area clear for mine site: {} with {} blocks", siteName, positions.size());
+    // 配置文件被外部修改，在服务器线程上应用监视线程已经检查过的配置
+    private static void onConfigFileChanged(String content, JsonObject config) {
+        TickScheduler.schedule(0, () -> {
+            MineSiteConfigService.applyConfig(content, config);
+            reloadSites();
+        });
     }
 
-    // 解析权重方块
-    private static List<WeightedBlock> parseWeightedBlocks(JsonArray minesArray) {
-        List<WeightedBlock> blocks = new ArrayList<>();
+    private static void resumeRefresh(RefreshCheckpoint.Data data) {
+        String siteName = data.site();
+        SiteDefinition site = sites.get(siteName);
+        boolean clear = RefreshCheckpoint.KIND_CLEAR.equals(data.kind());
+        boolean minedOnly = RefreshCheckpoint.KIND_MINED.equals(data.kind());
+        // 矿场已删除、状态已改变、区域/矿石配置已修改或只回填任务缺少挖掘记录时放弃检查点
+        if (site == null || site.isActive() == clear
+                || !site.configHash().equals(data.configHash())
+                || (minedOnly && !minedBlocks.containsKey(siteName))) {
+            LOGGER.info("矿场 {} 的配置已变化，放弃未完成的刷新", siteName);
+            RefreshCheckpoint.delete(siteName);
+            return;
+        }
 
-        for (JsonElement element : minesArray) {
-            JsonObject mine = element.getAsJsonObject();
-            String blockId = mine.get("block").getAsString();
-            int weight = mine.get("weight").getAsInt();
+        MineSiteUtils.RegionBounds mineArea = site.bounds();
+        RefreshPlan plan = clear
+                ? RefreshPlan.uniform(mineArea, Blocks.AIR.defaultBlockState())
+                : RefreshPlan.withPalette(mineArea, site.palette().states());
+        plan.setPlacement(site.placement());
+        if (!clear) {
+            // 整体刷新沿用中断前的挖掘记录，已完成部分之后的挖掘仍然有效
+            plan.setMined(minedBlocks.computeIfAbsent(siteName, name -> new MinedBlocks(mineArea)), minedOnly);
+        }
+        plan.restoreProgress(data.completed(), data.progress());
+        plan.retainMinedColumns();
+        LOGGER.info("继续矿场 {} 未完成的{}，已完成 {}/{} 个方块", siteName, clear ? "清除" : "刷新",
+                plan.getBlocksVisited(), plan.getTotalBlocks());
 
-            Block block = ForgeRegistries.BLOCKS.getValue(ResourceLocation.tryParse(blockId));
-            if (block != null) {
-                blocks.add(new WeightedBlock(block.defaultBlockState(), weight));
-            }
+        if (clear) {
+            registerPlan(siteName, plan);
+        } else {
+            clearedSites.remove(siteName);
+            // 使用中断前的种子，保证剩余部分与已写入部分属于同一布局
+            startRefresh(site, plan, data.seed(), System.nanoTime());
         }
+    }
 
-        // 如果没有配置有效的方块，添加默认石头
-        if (blocks.isEmpty()) {
-            blocks.add(new WeightedBlock(net.minecraft.world.level.block.Blocks.STONE.defaultBlockState(), 1));
+    // 服务器关闭前为所有进行中的刷新写入检查点，并清空运行时状态
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        if (configWatcher != null) {
+            configWatcher.stop();
+            configWatcher = null;
+        }
+        List<CompletableFuture<Void>> writes = saveCheckpoints(event.getServer());
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        if (!siteRefreshQueues.isEmpty()) {
+            LOGGER.info("已为 {} 个未完成的刷新写入检查点", siteRefreshQueues.size());
         }
 
-        return blocks;
+        // 未完成任务停止准备区块列，快照保留已记录的部分
+        siteRefreshQueues.values().forEach(plan -> {
+            if (plan.getPreparation() != null) {
+                plan.getPreparation().cancel();
+            }
+            if (plan.getSnapshot() != null) {
+                plan.getSnapshot().finish();
+            }
+        });
+        SiteSnapshot.flush().join();
+        MineSiteConfigService.flush().join();
+
+        TickScheduler.clear();
+        operations.clear();
+        timetable.clear();
+        siteRefreshQueues.clear();
+        minedBlocks.clear();
+        scheduler.clear();
+        refreshMetrics.clear();
+        checkpointedProgress.clear();
     }
 
-    // 随机选择方块状态
-    private static BlockState chooseRandomBlockState(List<WeightedBlock> weightedBlocks) {
-        int totalWeight = weightedBlocks.stream().mapToInt(wb -> wb.weight).sum();
-        int random = new Random().nextInt(totalWeight);
-        int current = 0;
+    // 清除矿场区域（设置为空气）
+    public static void clearSiteArea(String siteName) {
+        SiteDefinition site = sites.get(siteName);
+        if (site == null) return;
 
-        for (WeightedBlock wb : weightedBlocks) {
-            current += wb.weight;
-            if (random < current) {
-                return wb.state;
+        // 延迟关闭时接续关闭操作；已在清除时忽略；正在刷新或开启时以禁用为准，取消刷新
+        SiteOperations.Operation operation = operations.continueWith(siteName, SiteOperations.Kind.CLOSE);
+        if (operation == null) {
+            SiteOperations.Operation running = operations.get(siteName);
+            if (running != null && !running.getKind().isRefill()) {
+                resolveDuplicate(siteName, SiteOperations.Kind.CLEAR);
+                return;
             }
+            if (running != null) {
+                operations.cancel(siteName);
+                stopSitePlan(siteName);
+                LOGGER.info("矿场 {} 被禁用，取消进行中的{}", siteName, running.getKind().getDisplayName());
+            }
+            operation = operations.begin(siteName, SiteOperations.Kind.CLEAR);
+            if (operation == null) return;
+        }
+
+        // 在清除前传送玩家
+        teleportPlayersFromSite(siteName);
+
+        // 整个区域统一设置为空气，无需逐方块存储
+        RefreshPlan plan = RefreshPlan.uniform(site.bounds(), Blocks.AIR.defaultBlockState());
+        plan.setPlacement(site.placement());
+        plan.setEntitySweep(new EntitySweep(site.bounds(), site.safetyPoint()));
+        attachSnapshot(site, plan);
+
+        // 清除后挖掘记录失效，重新开放时整体刷新
+        if (minedBlocks.remove(siteName) != null) {
+            RefreshCheckpoint.submit(() -> MinedBlocks.delete(siteName));
         }
 
-        return weightedBlocks.get(0).state;
+        // 存储清除任务
+        registerPlan(siteName, plan);
+
+        LOGGER.info("Scheduled area clear for mine site: {} with {} blocks", siteName, plan.getTotalBlocks());
     }
 
     // 处理刷新任务
@@ -366,96 +768,228 @@ public class MineSiteRefreshService {
         MinecraftServer server = net.minecraftforge.server.ServerLifecycleHooks.getCurrentServer();
         if (server == null) return;
 
-        Iterator<Map.Entry<String, Queue<BlockPos>>> iterator = siteRefreshQueues.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Queue<BlockPos>> entry = iterator.next();
-            String siteName = entry.getKey();
-            Queue<BlockPos> queue = entry.getValue();
-
-            // 获取矿场维度
-            ResourceKey<Level> dimension = siteDimensions.get(siteName);
-            if (dimension == null) {
-                iterator.remove();
-                siteBlockStates.remove(siteName);
-                continue;
-            }
+        // 执行到期的延迟任务和定时刷新
+        TickScheduler.tick();
+        timetable.pollDue(Instant.now(), siteName -> {
+            LOGGER.info("矿场 {} 到达定时刷新时间", siteName);
+            forceRefreshSite(siteName, false);
+        });
 
-            // 获取世界
-            ServerLevel level = server.getLevel(dimension);
-            if (level == null) {
-                // 维度未加载，跳过
-                continue;
-            }
+        // 定期写入检查点和挖掘记录，并为无人在场的矿场安排后台回填
+        if (server.getTickCount() % CHECKPOINT_INTERVAL_TICKS == 0) {
+            saveCheckpoints(server);
+        }
+        if (server.getTickCount() % BACKGROUND_REFILL_INTERVAL_TICKS == 0) {
+            scheduleBackgroundRefills(server);
+        }
 
-            // 记录当前矿场的tick开始时间
-            long siteTickStart = System.nanoTime();
+        if (siteRefreshQueues.isEmpty()) return;
 
-            // 获取方块状态映射
-            Map<BlockPos, BlockState> blockStates = siteBlockStates.get(siteName);
-            if (blockStates == null) {
-                iterator.remove();
-                continue;
-            }
+        // 本tick的全局刷新预算，由所有矿场按权重轮流分配
+        long tickStart = System.nanoTime();
+        RefreshBudget budget = RefreshBudget.forTick(server);
+        Map<ServerLevel, SectionBlockWriter> writers = new IdentityHashMap<>();
+
+        scheduler.sync(siteRefreshQueues.keySet());
+        long count = scheduler.run(budget, MineSiteRefreshService::getSitePriority,
+                new RefreshScheduler.SiteWorker() {
+                    @Override
+                    public int work(String siteName, int maxBlocks) {
+                        return refreshSiteStep(server, writers, siteName, maxBlocks);
+                    }
 
-            // 每tick刷新一定数量的方块
-            int blocksPerTick = Config.SITE_REFRESH_SPEED.get() > 0 ? Config.SITE_REFRESH_SPEED.get() : 100;
-            int count = 0;
+                    @Override
+                    public boolean isPending(String siteName) {
+                        return siteRefreshQueues.containsKey(siteName);
+                    }
+                },
+                siteName -> {
+                    // 有待处理工作却没有分到预算
+                    RefreshMetrics metrics = refreshMetrics.get(siteName);
+                    if (metrics != null) {
+                        metrics.waitTicks++;
+                    }
+                });
 
-            while (!queue.isEmpty() && count < blocksPerTick) {
-                BlockPos pos = queue.poll();
-                BlockState state = blockStates.get(pos);
+        long tickTime = System.nanoTime() - tickStart;
+        LOGGER.debug("[PERF] Tick processed {} blocks across {} sites in {} ms",
+                count, siteRefreshQueues.size(), MineSiteUtils.nsToMs(tickTime));
+    }
 
-                if (state != null && level.isLoaded(pos)) {
-                    level.setBlock(pos, state, 3);
-                    count++;
-                }
-            }
+    // 为单个矿场执行一份配额的刷新
+    private static int refreshSiteStep(MinecraftServer server, Map<ServerLevel, SectionBlockWriter> writers,
+                                       String siteName, int maxBlocks) {
+        RefreshPlan plan = siteRefreshQueues.get(siteName);
+        if (plan == null) return 0;
 
-            // 记录当前矿场的tick耗时
-            long siteTickTime = System.nanoTime() - siteTickStart;
-            LOGGER.debug("[PERF] Site '{}' processed {} blocks in {} ms ({} blocks/s)",
-                    siteName, count, MineSiteUtils.nsToMs(siteTickTime), MineSiteUtils.calculateBlocksPerSecond(count, siteTickTime));
+        // 获取矿场维度
+        SiteDefinition site = sites.get(siteName);
+        if (site == null) {
+            siteRefreshQueues.remove(siteName);
+            releasePlan(plan);
+            RefreshCheckpoint.delete(siteName);
+            operations.finishPlan(siteName, plan);
+            return 0;
+        }
 
-            // 更新性能指标
-            RefreshMetrics metrics = refreshMetrics.get(siteName);
-            if (metrics != null) {
-                metrics.blocksProcessed += count;
+        // 获取世界
+        ServerLevel level = server.getLevel(site.dimension());
+        if (level == null) {
+            // 维度未加载，跳过
+            return 0;
+        }
+
+        // 后台回填在有玩家进入矿场时暂停
+        if (plan.isBackground() && hasPlayersInside(level, plan.getBounds())) {
+            return 0;
+        }
+
+        // 在配额范围内刷新方块，写入器在第一次写入每个区块列之前清理其中的实体
+        SectionBlockWriter writer = writers.computeIfAbsent(level, SectionBlockWriter::new);
+        int count = writer.apply(plan, maxBlocks);
+
+        // 更新性能指标
+        RefreshMetrics metrics = refreshMetrics.get(siteName);
+        if (metrics != null) {
+            if (metrics.firstBlockTime == 0) {
+                metrics.firstBlockTime = System.nanoTime();
+            }
+            metrics.blocksProcessed += count;
+            if (metrics.lastTick != server.getTickCount()) {
+                metrics.lastTick = server.getTickCount();
                 metrics.ticksTaken++;
             }
+        }
+
+        // 刷新完成
+        if (!plan.hasNext()) {
+            siteRefreshQueues.remove(siteName);
+            releasePlan(plan);
+            RefreshCheckpoint.delete(siteName);
+            operations.finishPlan(siteName, plan);
 
-            // 刷新完成
-            if (queue.isEmpty()) {
-                iterator.remove();
-                siteBlockStates.remove(siteName);
+            // 输出完整性能报告
+            if (metrics != null) {
+                logPerformanceReport(siteName, metrics, plan);
+            }
+            EntitySweep sweep = plan.getEntitySweep();
+            if (sweep != null) {
+                LOGGER.info("矿场 {} 写入前清理了 {} 个实体，移动了 {} 个实体到安全点",
+                        siteName, sweep.getRemoved(), sweep.getRelocated());
+            }
 
-                // 输出完整性能报告
-                if (metrics != null) {
-                    logPerformanceReport(siteName, metrics);
+            // 挖掘记录已回填，允许再次按挖掘比例触发刷新
+            if (!plan.isUniform()) {
+                MinedBlocks mined = minedBlocks.get(siteName);
+                if (mined != null) {
+                    mined.resetRefreshRequest();
                 }
+            }
 
-                server.getPlayerList().broadcastSystemMessage(Component.literal("§a矿场 " + siteName + " 刷新完成！"), false);
+            if (!plan.isBackground()) {
+                server.getPlayerList().broadcastSystemMessage(Component.literal(
+                        "§a矿场 " + siteName + (plan.isRestore() ? " 恢复完成！" : " 刷新完成！")), false);
+            }
 
-                // 记录刷新完成
-                LOGGER.info("Completed refresh for mine site: {}", siteName);
+            // 记录刷新完成
+            logRefresh(plan, "Completed refresh for mine site: {}", siteName);
+        }
+        return count;
+    }
+
+    // 记录矿场内被挖掘的方块，只统计未被取消的破坏事件
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public static void onBlockBreak(BlockEvent.BreakEvent event) {
+        if (minedBlocks.isEmpty() || !(event.getLevel() instanceof ServerLevel level)) return;
+        BlockPos pos = event.getPos();
+        for (SiteIndex.Area area : siteIndex.at(level.dimension(), pos.getX(), pos.getY(), pos.getZ())) {
+            MinedBlocks mined = minedBlocks.get(area.siteName());
+            if (mined != null && mined.getBounds().contains(pos.getX(), pos.getY(), pos.getZ())
+                    && mined.mark(pos.getX(), pos.getY(), pos.getZ())) {
+                checkDepletion(area.siteName(), mined);
             }
         }
     }
 
-    private static void startRefreshCountdown(String siteName) {
+    /**
+     * 查找与指定区域重叠的已有矿场
+     * @param dimension 维度名称，例如 minecraft:overworld
+     * @return 重叠的矿场名称，维度无效时返回空列表
+     */
+    public static List<String> findOverlappingSites(String dimension, BlockPos pos1, BlockPos pos2) {
+        ResourceLocation dimLoc = ResourceLocation.tryParse(dimension);
+        if (dimLoc == null) return List.of();
+        ResourceKey<Level> key = ResourceKey.create(net.minecraft.core.registries.Registries.DIMENSION, dimLoc);
+        List<String> names = new ArrayList<>();
+        for (SiteIndex.Area area : siteIndex.intersecting(key, MineSiteUtils.RegionBounds.fromCorners(pos1, pos2))) {
+            names.add(area.siteName());
+        }
+        return names;
+    }
+
+    // 新建的矿场在重载配置前先加入空间索引，使后续创建的矿场也能检查重叠
+    public static void addSiteArea(String siteName, String dimension, BlockPos pos1, BlockPos pos2) {
+        ResourceLocation dimLoc = ResourceLocation.tryParse(dimension);
+        if (dimLoc == null) return;
+        siteIndex.put(siteName, ResourceKey.create(net.minecraft.core.registries.Registries.DIMENSION, dimLoc),
+                MineSiteUtils.RegionBounds.fromCorners(pos1, pos2));
+    }
+
+    // 被挖掘的方块达到阈值时按正常倒计时安排刷新，每轮只触发一次
+    private static void checkDepletion(String siteName, MinedBlocks mined) {
+        SiteDefinition site = sites.get(siteName);
+        if (site == null || site.depletionThreshold() == 0 || mined.getCount() < site.depletionThreshold()
+                || !mined.requestRefresh()) return;
+        LOGGER.info("矿场 {} 已被挖掘 {}/{} 个方块，自动安排刷新", siteName, mined.getCount(), mined.getBounds().getVolume());
+        // 按挖掘比例触发的刷新不改变定时刷新的时间
+        forceRefreshSite(siteName, true);
+    }
+
+    // 为开启后台回填、有被挖掘方块且无人在场的矿场安排只回填被挖掘位置的任务
+    private static void scheduleBackgroundRefills(MinecraftServer server) {
+        minedBlocks.forEach((siteName, mined) -> {
+            if (mined.getCount() == 0 || siteRefreshQueues.containsKey(siteName) || operations.get(siteName) != null) return;
+            SiteDefinition site = sites.get(siteName);
+            if (site == null || !site.minedRefresh() || !site.backgroundRefill() || !site.isActive()) return;
+            ServerLevel level = server.getLevel(site.dimension());
+            if (level == null || hasPlayersInside(level, mined.getBounds())) return;
+
+            RefreshPlan plan = RefreshPlan.withPalette(mined.getBounds(), site.palette().states());
+            plan.setPlacement(site.placement());
+            plan.setBackground(true);
+            plan.setMined(mined, true);
+            plan.retainMinedColumns();
+            LOGGER.debug("矿场 {} 开始后台回填 {} 个被挖掘的方块", siteName, mined.getCount());
+            startRefresh(site, plan, site.seed(), System.nanoTime());
+        });
+    }
+
+    private static boolean hasPlayersInside(ServerLevel level, MineSiteUtils.RegionBounds bounds) {
+        for (ServerPlayer player : level.players()) {
+            BlockPos pos = player.blockPosition();
+            if (bounds.contains(pos.getX(), pos.getY(), pos.getZ())) return true;
+        }
+        return false;
+    }
+
+    // 矿场在全局调度中的权重，由配置中的 priority 决定，默认为 1
+    private static int getSitePriority(String siteName) {
+        SiteDefinition site = sites.get(siteName);
+        return site == null ? 1 : site.priority();
+    }
+
+    private static void startRefreshCountdown(String siteName, SiteOperations.Operation operation) {
         MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
         if (server == null) return;
 
-        Timer timer = new Timer();
-        AtomicInteger countdown = new AtomicInteger(10);
-
         // 初始通知（添加传送提示）
-        String initialMsg = "§6矿场 " + siteName + " 将在 10 秒后刷新！区域内的玩家将被传送至安全点";
+        String initialMsg = "§6矿场 " + siteName + " 将在 " + COUNTDOWN_SECONDS + " 秒后刷新！区域内的玩家将被传送至安全点";
         server.getPlayerList().broadcastSystemMessage(Component.literal(initialMsg), false);
 
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                int current = countdown.decrementAndGet();
+        // 每秒一条提示，全部预先放入时间轮
+        for (int elapsed = 1; elapsed <= COUNTDOWN_SECONDS; elapsed++) {
+            int current = COUNTDOWN_SECONDS - elapsed;
+            operation.track(TickScheduler.scheduleSeconds(elapsed, () -> {
                 if (current > 0) {
                     // 不同时间点使用不同颜色
                     String color = current <= 3 ? "§c" : "§6";
@@ -471,44 +1005,28 @@ public class MineSiteRefreshService {
                     // 刷新开始通知
                     String finalMsg = "§a矿场 " + siteName + " 正在刷新中...";
                     server.getPlayerList().broadcastSystemMessage(Component.literal(finalMsg), false);
-                    this.cancel();
-                    timer.cancel();
                 }
-            }
-        }, 1000, 1000); // 1秒后开始，每秒执行
+            }));
+        }
     }
 
     // 传送矿场内的玩家到安全点
     private static void teleportPlayersFromSite(String siteName) {
-        JsonObject site = siteConfigs.get(siteName);
-        if (site == null || !site.has("safetyPoint")) return;
+        SiteDefinition site = sites.get(siteName);
+        if (site == null || site.safetyPoint() == null) return;
         MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
         if (server == null) return;
-        // 解析安全点坐标
-        BlockPos safetyPoint = MineSiteUtils.parseBlockPos(site.get("safetyPoint").getAsString());
+        BlockPos safetyPoint = site.safetyPoint();
 
-        // 获取矿场维度
-        ResourceKey<Level> dimension = siteDimensions.get(siteName);
-        if (dimension == null) return;
-
-        ServerLevel level = server.getLevel(dimension);
+        ServerLevel level = server.getLevel(site.dimension());
         if (level == null) return;
-        // 解析矿场区域
-        BlockPos pos1 = MineSiteUtils.parseBlockPos(site.get("pos1").getAsString());
-        BlockPos pos2 = MineSiteUtils.parseBlockPos(site.get("pos2").getAsString());
-
-        // 计算区域范围
-        MineSiteUtils.RegionBounds mineArea = MineSiteUtils.RegionBounds.fromCorners(pos1, pos2);
+        MineSiteUtils.RegionBounds mineArea = site.bounds();
 
-        // 查找区域内的玩家
+        // 查找区域内的玩家，只检查矿场所在维度的玩家
         List<ServerPlayer> playersToTeleport = new ArrayList<>();
-        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
-            if (player.level().dimension() != dimension) continue;
-
+        for (ServerPlayer player : level.players()) {
             BlockPos playerPos = player.blockPosition();
-            if (playerPos.getX() >= mineArea.getMinX() && playerPos.getX() <= mineArea.getMaxX() &&
-                    playerPos.getY() >= mineArea.getMinY() && playerPos.getY() <= mineArea.getMaxY() &&
-                    playerPos.getZ() >= mineArea.getMinZ() && playerPos.getZ() <= mineArea.getMaxZ()) {
+            if (mineArea.contains(playerPos.getX(), playerPos.getY(), playerPos.getZ())) {
                 playersToTeleport.add(player);
             }
         }
@@ -535,10 +1053,22 @@ public class MineSiteRefreshService {
         }
     }
 
+    // 后台回填可能频繁发生，其日志只在 debug 级别输出
+    private static void logRefresh(RefreshPlan plan, String format, Object... args) {
+        if (plan.isBackground()) {
+            LOGGER.debug(format, args);
+        } else {
+            LOGGER.info(format, args);
+        }
+    }
+
     // 输出完整性能报告
-    private static void logPerformanceReport(String siteName, RefreshMetrics metrics) {
-        long totalTime = System.nanoTime() - metrics.startTime;
-        long activeTime = totalTime - metrics.prepareTime;
+    private static void logPerformanceReport(String siteName, RefreshMetrics metrics, RefreshPlan plan) {
+        if (plan.isBackground() && !LOGGER.isDebugEnabled()) return;
+        long now = System.nanoTime();
+        long totalTime = now - metrics.startTime;
+        // 区块列随写入进度准备，写入阶段从第一次分到预算开始计算
+        long activeTime = metrics.firstBlockTime > 0 ? now - metrics.firstBlockTime : totalTime;
 
         double totalTimeMs = MineSiteUtils.nsToMs(totalTime);
         double activeTimeMs = MineSiteUtils.nsToMs(activeTime);
@@ -546,6 +1076,7 @@ public class MineSiteRefreshService {
         double avgBlocksPerTick = (double) metrics.totalBlocks / metrics.ticksTaken;
         double blocksPerSecond = MineSiteUtils.calculateBlocksPerSecond(metrics.totalBlocks, activeTime);
         double efficiency = (activeTime / (double) totalTime) * 100;
+        long queueWait = metrics.firstBlockTime > 0 ? metrics.firstBlockTime - metrics.startTime : 0;
 
         String totalTimeStr = String.format("%.3f", totalTimeMs);
         String activeTimeStr = String.format("%.3f", activeTimeMs);
@@ -553,18 +1084,19 @@ public class MineSiteRefreshService {
         String averageBlocksPerTickStr = String.format("%.1f", avgBlocksPerTick);
         String averageBlocksPerSecondStr = String.format("%.1f", blocksPerSecond);
         String efficiencyStr = String.format("%.2f", efficiency);
-
-        LOGGER.info("[PERF] Refresh completed for site '{}'", siteName);
-        LOGGER.info("[PERF]   Total blocks: {}", metrics.totalBlocks);
-        LOGGER.info("[PERF]   Total time: {} ms (active: {} ms)", totalTimeStr, activeTimeStr);
-        LOGGER.info("[PERF]   Prepare time: {} ms", prepareTimeStr);
-        LOGGER.info("[PERF]   Ticks taken: {}", metrics.ticksTaken);
-        LOGGER.info("[PERF]   Average blocks/tick: {}", averageBlocksPerTickStr);
-        LOGGER.info("[PERF]   Average blocks/second: {}", averageBlocksPerSecondStr);
-        LOGGER.info("[PERF]   Efficiency: {}%", efficiencyStr);
-    }
-
-    // 权重方块类
-    private record WeightedBlock(BlockState state, int weight) {
+        String queueWaitStr = String.format("%.3f", MineSiteUtils.nsToMs(queueWait));
+        long compared = plan.getBlocksWritten() + plan.getBlocksSkipped();
+        String skippedRatioStr = String.format("%.2f", compared > 0 ? plan.getBlocksSkipped() * 100.0 / compared : 0);
+
+        logRefresh(plan, "[PERF] Refresh completed for site '{}'", siteName);
+        logRefresh(plan, "[PERF]   Total blocks: {}", metrics.totalBlocks);
+        logRefresh(plan, "[PERF]   Written/skipped: {} / {} ({}% skipped)", plan.getBlocksWritten(), plan.getBlocksSkipped(), skippedRatioStr);
+        logRefresh(plan, "[PERF]   Total time: {} ms (active: {} ms)", totalTimeStr, activeTimeStr);
+        logRefresh(plan, "[PERF]   Prepare time: {} ms", prepareTimeStr);
+        logRefresh(plan, "[PERF]   Ticks taken: {}", metrics.ticksTaken);
+        logRefresh(plan, "[PERF]   Average blocks/tick: {}", averageBlocksPerTickStr);
+        logRefresh(plan, "[PERF]   Average blocks/second: {}", averageBlocksPerSecondStr);
+        logRefresh(plan, "[PERF]   Efficiency: {}%", efficiencyStr);
+        logRefresh(plan, "[PERF]   Queue wait: {} ms before first block, {} ticks without budget", queueWaitStr, metrics.waitTicks);
     }
 }
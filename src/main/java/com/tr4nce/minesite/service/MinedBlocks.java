@@ -0,0 +1,235 @@
+package com.tr4nce.minesite.service;
+
+import com.mojang.logging.LogUtils;
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import net.minecraft.core.BlockPos;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 矿场内被挖掘的方块记录
+ * 以方块在区域内的线性偏移为下标的位图，每个方块只占 1 位，另外按区块列维护被挖掘的数量。
+ * 由方块破坏事件标记，刷新经过某个位置时清除，只在服务器线程修改；
+ * 被挖掘的数量使用原子计数，可以在任意线程读取。
+ * 从整体刷新开始的记录是完整的，可以用于只回填；启动或重载时为尚无记录的矿场创建的记录
+ * 不知道此前被挖掘的位置，只用于按挖掘比例触发刷新。
+ */
+class MinedBlocks {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x4D534D42; // "MSMB"
+    private static final int VERSION = 2;
+    private static final String DIRECTORY = "mined";
+
+    private final MineSiteUtils.RegionBounds bounds;
+    private final long[] bits;
+    private final AtomicLong count;
+    // 每个区块列（16x16）中被挖掘的数量，与刷新计划的区块列编号一致
+    private final int[] columnCounts;
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunkCountX;
+    // 记录是否从一次整体刷新开始
+    private final boolean complete;
+    // 是否已经因为挖掘比例达到阈值而安排了刷新
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+    // 每次修改递增，与上次保存时的值比较判断是否需要重新保存
+    private long modCount;
+    private long savedModCount;
+
+    // 随整体刷新开始的完整记录
+    MinedBlocks(MineSiteUtils.RegionBounds bounds) {
+        this(bounds, true);
+    }
+
+    private MinedBlocks(MineSiteUtils.RegionBounds bounds, boolean complete) {
+        this(bounds, new long[Math.toIntExact((bounds.getVolume() + 63) >>> 6)], 0, complete);
+    }
+
+    private MinedBlocks(MineSiteUtils.RegionBounds bounds, long[] bits, long count, boolean complete) {
+        this.bounds = bounds;
+        this.bits = bits;
+        this.count = new AtomicLong(count);
+        this.complete = complete;
+        this.minChunkX = bounds.getMinX() >> 4;
+        this.minChunkZ = bounds.getMinZ() >> 4;
+        this.chunkCountX = (bounds.getMaxX() >> 4) - minChunkX + 1;
+        this.columnCounts = new int[chunkCountX * ((bounds.getMaxZ() >> 4) - minChunkZ + 1)];
+    }
+
+    // 从现在开始跟踪挖掘的记录，此前被挖掘的位置未知，不能用于只回填
+    static MinedBlocks startTracking(MineSiteUtils.RegionBounds bounds) {
+        return new MinedBlocks(bounds, false);
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    MineSiteUtils.RegionBounds getBounds() {
+        return bounds;
+    }
+
+    // 被挖掘且尚未回填的方块数量
+    long getCount() {
+        return count.get();
+    }
+
+    // 被挖掘的比例达到阈值时调用，只有第一次调用返回 true，直到刷新完成后重置
+    boolean requestRefresh() {
+        return refreshRequested.compareAndSet(false, true);
+    }
+
+    void resetRefreshRequest() {
+        refreshRequested.set(false);
+    }
+
+    // 自上次保存后是否有修改
+    boolean isModified() {
+        return modCount != savedModCount;
+    }
+
+    // 标记区域内的坐标被挖掘，返回是否为新标记
+    boolean mark(int x, int y, int z) {
+        long index = bounds.indexOf(x, y, z);
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        if ((bits[word] & mask) != 0) return false;
+        bits[word] |= mask;
+        columnCounts[columnOf(x, z)]++;
+        count.incrementAndGet();
+        modCount++;
+        return true;
+    }
+
+    // 清除指定偏移的标记，返回该位置此前是否被挖掘
+    boolean clear(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        if ((bits[word] & mask) == 0) return false;
+        bits[word] &= ~mask;
+        columnCounts[columnOf(index)]--;
+        count.decrementAndGet();
+        modCount++;
+        return true;
+    }
+
+    // 偏移范围 [from, to) 内第一个被挖掘的位置，按 64 位整字跳过未挖掘的位置，没有时返回 -1
+    long nextMined(long from, long to) {
+        if (from >= to) return -1;
+        int word = (int) (from >>> 6);
+        long bitsInWord = bits[word] & (-1L << from);
+        while (bitsInWord == 0) {
+            if ((long) ++word << 6 >= to) return -1;
+            bitsInWord = bits[word];
+        }
+        long index = ((long) word << 6) + Long.numberOfTrailingZeros(bitsInWord);
+        return index < to ? index : -1;
+    }
+
+    // 指定区块所在的区块列中是否有被挖掘的方块
+    boolean anyMinedInChunk(int chunkX, int chunkZ) {
+        return columnCounts[(chunkZ - minChunkZ) * chunkCountX + (chunkX - minChunkX)] > 0;
+    }
+
+    private int columnOf(int x, int z) {
+        return ((z >> 4) - minChunkZ) * chunkCountX + ((x >> 4) - minChunkX);
+    }
+
+    private int columnOf(long index) {
+        long row = index / bounds.getSizeX();
+        return columnOf(bounds.getMinX() + (int) (index - row * bounds.getSizeX()),
+                bounds.getMinZ() + (int) (row % bounds.getSizeZ()));
+    }
+
+    // 读取位图后重新统计各区块列的数量，只遍历被挖掘的位置
+    private void countColumns() {
+        long volume = bounds.getVolume();
+        for (long index = nextMined(0, volume); index >= 0; index = nextMined(index + 1, volume)) {
+            columnCounts[columnOf(index)]++;
+        }
+    }
+
+    // 记录当前状态已保存，并返回用于在后台线程保存的副本
+    MinedBlocks snapshotForSave() {
+        savedModCount = modCount;
+        return new MinedBlocks(bounds, bits.clone(), count.get(), complete);
+    }
+
+    // 保存到数据目录，文件头记录存档名和区域范围
+    void save(String siteName, String world) {
+        Path path = pathFor(siteName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(world);
+                out.writeInt(bounds.getMinX());
+                out.writeInt(bounds.getMinY());
+                out.writeInt(bounds.getMinZ());
+                out.writeInt(bounds.getMaxX());
+                out.writeInt(bounds.getMaxY());
+                out.writeInt(bounds.getMaxZ());
+                out.writeBoolean(complete);
+                out.writeLong(count.get());
+                for (long word : bits) {
+                    out.writeLong(word);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("保存矿场 {} 的挖掘记录失败", siteName, e);
+        }
+    }
+
+    /**
+     * 读取保存的挖掘记录
+     * @return 文件不存在，或与存档、区域范围不匹配时返回 null
+     */
+    static MinedBlocks load(String siteName, String world, MineSiteUtils.RegionBounds bounds) {
+        Path path = pathFor(siteName);
+        if (!Files.isRegularFile(path)) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) return null;
+            int version = in.readInt();
+            if ((version != 1 && version != VERSION) || !world.equals(in.readUTF())) return null;
+            MineSiteUtils.RegionBounds saved = MineSiteUtils.RegionBounds.fromCorners(
+                    new BlockPos(in.readInt(), in.readInt(), in.readInt()),
+                    new BlockPos(in.readInt(), in.readInt(), in.readInt()));
+            if (!saved.equals(bounds)) return null;
+
+            // 第 1 版的记录都随整体刷新创建
+            MinedBlocks mined = new MinedBlocks(bounds, version == 1 || in.readBoolean());
+            long count = in.readLong();
+            for (int i = 0; i < mined.bits.length; i++) {
+                mined.bits[i] = in.readLong();
+            }
+            mined.count.set(count);
+            mined.countColumns();
+            return mined;
+        } catch (IOException e) {
+            LOGGER.warn("读取矿场 {} 的挖掘记录失败: {}", siteName, e.getMessage());
+            return null;
+        }
+    }
+
+    static void delete(String siteName) {
+        try {
+            Files.deleteIfExists(pathFor(siteName));
+        } catch (IOException e) {
+            LOGGER.warn("删除矿场 {} 的挖掘记录失败: {}", siteName, e.getMessage());
+        }
+    }
+
+    private static Path pathFor(String siteName) {
+        return MineSiteConfigService.getDataDir().resolve(DIRECTORY).resolve(MineSiteUtils.toFileName(siteName) + ".bin");
+    }
+}
@@ -0,0 +1,135 @@
+package com.tr4nce.minesite.service;
+
+import com.tr4nce.minesite.utils.AliasTable;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.*;
+
+/**
+ * 按高度分层的矿石分布
+ * 每种矿石可以限定出现的高度范围（minY/maxY），编译时为矿场的每一层 Y 准备一张别名表，
+ * 启用的矿石组合相同的层共用同一张表，生成时每个方块只需一次查表和一次采样。
+ * 配置了 cluster 的矿石以矿脉形式出现：采样只决定矿脉的起点（权重按矿脉大小折算），
+ * 随后从起点在区块列内随机游走延伸，总量与不成簇时大致相同。
+ */
+class OreLayers implements RefreshPlanner.ColumnSampler {
+    /**
+     * 单种矿石的配置
+     * @param paletteIndex 在矿场调色板中的下标
+     * @param minY 出现的最低高度（含）
+     * @param maxY 出现的最高高度（含）
+     * @param cluster 矿脉大小，1 表示逐方块独立分布
+     */
+    record Entry(int paletteIndex, double weight, int minY, int maxY, int cluster) {
+        boolean covers(int y) {
+            return y >= minY && y <= maxY;
+        }
+    }
+
+    // 启用的矿石组合相同的层共用的采样数据
+    private record Layer(AliasTable table, byte[] paletteIndices, BitSet allowed) {
+    }
+
+    // 矿脉游走的六个方向：X、Y、Z 各正负一格
+    private static final int[][] DIRECTIONS = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+
+    // 下标为相对矿场最低层的高度
+    private final Layer[] layers;
+    // 调色板下标对应的矿脉大小
+    private final int[] clusterSizes;
+    private final boolean hasClusters;
+
+    private OreLayers(Layer[] layers, int[] clusterSizes) {
+        this.layers = layers;
+        this.clusterSizes = clusterSizes;
+        this.hasClusters = Arrays.stream(clusterSizes).anyMatch(size -> size > 1);
+    }
+
+    /**
+     * 为矿场的高度范围编译分层采样表
+     * @param paletteSize 调色板大小
+     * @param fallbackIndex 没有任何矿石覆盖的层使用的调色板下标
+     */
+    static OreLayers compile(List<Entry> entries, int minY, int maxY, int paletteSize, int fallbackIndex) {
+        int[] clusterSizes = new int[paletteSize];
+        Arrays.fill(clusterSizes, 1);
+        for (Entry entry : entries) {
+            clusterSizes[entry.paletteIndex()] = Math.max(clusterSizes[entry.paletteIndex()], entry.cluster());
+        }
+
+        Map<BitSet, Layer> shared = new HashMap<>();
+        Layer[] layers = new Layer[maxY - minY + 1];
+        for (int y = minY; y <= maxY; y++) {
+            BitSet active = new BitSet(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).covers(y)) {
+                    active.set(i);
+                }
+            }
+            layers[y - minY] = shared.computeIfAbsent(active, key -> compileLayer(entries, key, fallbackIndex));
+        }
+        return new OreLayers(layers, clusterSizes);
+    }
+
+    private static Layer compileLayer(List<Entry> entries, BitSet active, int fallbackIndex) {
+        if (active.isEmpty()) {
+            BitSet allowed = new BitSet();
+            allowed.set(fallbackIndex);
+            return new Layer(AliasTable.of(new double[]{1}), new byte[]{(byte) fallbackIndex}, allowed);
+        }
+        double[] weights = new double[active.cardinality()];
+        byte[] paletteIndices = new byte[weights.length];
+        BitSet allowed = new BitSet();
+        int n = 0;
+        for (int i = active.nextSetBit(0); i >= 0; i = active.nextSetBit(i + 1)) {
+            Entry entry = entries.get(i);
+            weights[n] = entry.weight() / entry.cluster();
+            paletteIndices[n++] = (byte) entry.paletteIndex();
+            allowed.set(entry.paletteIndex());
+        }
+        return new Layer(AliasTable.of(weights), paletteIndices, allowed);
+    }
+
+    @Override
+    public void fill(byte[] data, int sizeX, int layerSize, SplittableRandom random) {
+        int layerCount = data.length / layerSize;
+        IntArrayList seeds = hasClusters ? new IntArrayList() : null;
+        int i = 0;
+        for (int layer = 0; layer < layerCount; layer++) {
+            Layer sampler = layers[layer];
+            for (int end = i + layerSize; i < end; i++) {
+                byte index = sampler.paletteIndices()[sampler.table().sample(random)];
+                data[i] = index;
+                if (seeds != null && clusterSizes[index & 0xFF] > 1) {
+                    // 起点可能被之前的矿脉覆盖，同时记录起点的矿石
+                    seeds.add(i);
+                    seeds.add(index);
+                }
+            }
+        }
+        if (seeds == null) return;
+
+        // 先收集全部起点再延伸，延伸出的方块不会成为新的起点
+        int sizeZ = layerSize / sizeX;
+        for (int s = 0; s < seeds.size(); s += 2) {
+            int seed = seeds.getInt(s);
+            byte index = (byte) seeds.getInt(s + 1);
+            int x = seed % sizeX;
+            int z = (seed / sizeX) % sizeZ;
+            int y = seed / layerSize;
+            for (int step = clusterSizes[index & 0xFF] - 1; step > 0; step--) {
+                int[] direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+                int nx = x + direction[0];
+                int ny = y + direction[1];
+                int nz = z + direction[2];
+                // 矿脉不越过区块列边界，也不进入该矿石不允许出现的层
+                if (nx < 0 || nx >= sizeX || nz < 0 || nz >= sizeZ || ny < 0 || ny >= layerCount
+                        || !layers[ny].allowed().get(index & 0xFF)) continue;
+                x = nx;
+                y = ny;
+                z = nz;
+                data[y * layerSize + z * sizeX + x] = index;
+            }
+        }
+    }
+}
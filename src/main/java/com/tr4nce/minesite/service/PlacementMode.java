@@ -0,0 +1,40 @@
+package com.tr4nce.minesite.service;
+
+import net.minecraft.world.level.block.Block;
+
+/**
+ * 方块放置模式，由矿场配置中的 placement 决定
+ * full：与原版 setBlock 相同，触发邻居更新、红石和方块物理；其中把普通方块替换为不透明的完整方块
+ * （矿石、石头等）不会影响邻居，这部分直接写入区块段；
+ * no_updates：仍通过 setBlock 放置，但不通知邻居、不更新邻居形状；setBlock 仍会调用方块的 onPlace，
+ * 因此沙子、沙砾、混凝土粉末等会下落的方块改为直接写入区块段，不会安排下落；
+ * raw：直接写入区块段，不触发任何更新和物理，光照在区块列写完后统一检查。
+ */
+enum PlacementMode {
+    FULL("full", Block.UPDATE_ALL),
+    NO_UPDATES("no_updates", Block.UPDATE_CLIENTS | Block.UPDATE_KNOWN_SHAPE),
+    RAW("raw", Block.UPDATE_CLIENTS | Block.UPDATE_KNOWN_SHAPE);
+
+    private final String id;
+    // 调用 Level#setBlock 时使用的标志位（raw 模式仅用于带方块实体的方块）
+    private final int flags;
+
+    PlacementMode(String id, int flags) {
+        this.id = id;
+        this.flags = flags;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    // 根据配置值查找放置模式，无法识别时返回 null
+    static PlacementMode byId(String id) {
+        for (PlacementMode mode : values()) {
+            if (mode.id.equalsIgnoreCase(id)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
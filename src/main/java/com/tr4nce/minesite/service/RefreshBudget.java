@@ -0,0 +1,61 @@
+package com.tr4nce.minesite.service;
+
+import com.tr4nce.minesite.config.Config;
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * 单个tick内的全局刷新预算，由所有正在刷新的矿场共享
+ * BLOCKS 模式下每tick处理固定数量的方块；
+ * TIME 模式下每tick有固定的耗时上限，服务器平均 MSPT 超过阈值时自动收缩。
+ */
+class RefreshBudget {
+    // 服务器过载时预算最多收缩到原来的比例
+    private static final double MIN_BUDGET_FACTOR = 0.1;
+
+    private final Config.RefreshBudgetMode mode;
+    private final long deadline;
+    private int remainingBlocks;
+
+    private RefreshBudget(Config.RefreshBudgetMode mode, int blocksPerTick, long budgetNanos) {
+        this.mode = mode;
+        this.deadline = System.nanoTime() + budgetNanos;
+        this.remainingBlocks = blocksPerTick;
+    }
+
+    // 根据当前配置和服务器负载创建本tick的预算
+    static RefreshBudget forTick(MinecraftServer server) {
+        int blocksPerTick = Config.SITE_REFRESH_SPEED.get() > 0 ? Config.SITE_REFRESH_SPEED.get() : 100;
+        Config.RefreshBudgetMode mode = Config.REFRESH_BUDGET_MODE.get();
+        if (mode != Config.RefreshBudgetMode.TIME) {
+            return new RefreshBudget(mode, blocksPerTick, 0);
+        }
+
+        double budgetMs = Config.REFRESH_TICK_BUDGET_MS.get();
+        double threshold = Config.REFRESH_MSPT_THRESHOLD.get();
+        double mspt = server.getAverageTickTime();
+        if (mspt > threshold) {
+            // 超出阈值越多，预算收缩越快
+            double factor = Math.max(MIN_BUDGET_FACTOR, Math.pow(threshold / mspt, 2));
+            budgetMs *= factor;
+        }
+        return new RefreshBudget(mode, blocksPerTick, (long) (budgetMs * 1_000_000));
+    }
+
+    boolean hasRemaining() {
+        if (mode == Config.RefreshBudgetMode.TIME) {
+            return System.nanoTime() < deadline;
+        }
+        return remainingBlocks > 0;
+    }
+
+    // 下一批最多写入的方块数量，TIME 模式下每批结束后检查一次耗时
+    int nextBatch(int quantum) {
+        return mode == Config.RefreshBudgetMode.TIME ? quantum : Math.min(quantum, remainingBlocks);
+    }
+
+    void consume(int blocks) {
+        if (mode != Config.RefreshBudgetMode.TIME) {
+            remainingBlocks -= blocks;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.tr4nce.minesite.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.mojang.logging.LogUtils;
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * 刷新检查点
+ * 进行中的刷新定期把进度写入 config/minesite/checkpoints：矿场名、任务类型、种子、
+ * 配置哈希，以及已完成的区块列和未完成列的列内偏移。服务器启动时据此继续刷新，
+ * 固定种子的矿场会得到与中断前完全相同的布局。
+ * 所有文件操作在同一个后台线程上按提交顺序执行，保证删除不会被之前排队的写入覆盖。
+ */
+class RefreshCheckpoint {
+    static final String KIND_REFRESH = "refresh";
+    static final String KIND_CLEAR = "clear";
+    static final String KIND_MINED = "mined";
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Gson GSON = new Gson();
+    private static final int VERSION = 1;
+    private static final String DIRECTORY = "checkpoints";
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "MineSite-Checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 检查点内容
+     * @param world 存档名，避免单人游戏中把其它存档的检查点用到当前世界
+     * @param seed 布局种子，未配置种子时为 null
+     * @param configHash 区域和矿石配置的哈希，配置变化后检查点失效
+     * @param progress 未完成区块列的列内偏移（列号到偏移），未列出的列从头开始
+     */
+    record Data(String site, String world, String kind, Long seed, String configHash,
+                BitSet completed, Map<Integer, Integer> progress) {
+    }
+
+    // 记录计划的当前进度，只能在服务器线程调用
+    static Data capture(String siteName, String world, String kind, Long seed, String configHash, RefreshPlan plan) {
+        Map<Integer, Integer> progress = new HashMap<>();
+        for (int i = 0; i < plan.getPendingColumnCount(); i++) {
+            int column = plan.getPendingColumn(i);
+            int offset = plan.getColumnProgress(column);
+            if (offset > 0) {
+                progress.put(column, offset);
+            }
+        }
+        return new Data(siteName, world, kind, seed, configHash, plan.getCompletedColumns(), progress);
+    }
+
+    // 在后台写入检查点，返回写入完成时结束的 Future
+    static CompletableFuture<Void> save(Data data) {
+        return submit(() -> write(data));
+    }
+
+    // 在检查点线程上执行其它需要保持顺序的文件操作
+    static CompletableFuture<Void> submit(Runnable task) {
+        return CompletableFuture.runAsync(task, IO);
+    }
+
+    // 在后台删除矿场的检查点
+    static void delete(String siteName) {
+        IO.execute(() -> {
+            try {
+                Files.deleteIfExists(pathFor(siteName));
+            } catch (IOException e) {
+                LOGGER.warn("删除矿场 {} 的刷新检查点失败: {}", siteName, e.getMessage());
+            }
+        });
+    }
+
+    // 读取所有检查点，会等待之前提交的写入和删除完成
+    static List<Data> loadAll() {
+        return CompletableFuture.supplyAsync(RefreshCheckpoint::readAll, IO).join();
+    }
+
+    private static void write(Data data) {
+        JsonObject json = new JsonObject();
+        json.addProperty("version", VERSION);
+        json.addProperty("site", data.site());
+        json.addProperty("world", data.world());
+        json.addProperty("kind", data.kind());
+        if (data.seed() != null) {
+            json.addProperty("seed", data.seed());
+        }
+        json.addProperty("config", data.configHash());
+        json.addProperty("completed", Base64.getEncoder().encodeToString(data.completed().toByteArray()));
+        JsonObject progress = new JsonObject();
+        data.progress().forEach((column, offset) -> progress.addProperty(String.valueOf(column), offset));
+        json.add("progress", progress);
+
+        Path path = pathFor(data.site());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            Files.writeString(temp, GSON.toJson(json));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("写入矿场 {} 的刷新检查点失败", data.site(), e);
+        }
+    }
+
+    private static List<Data> readAll() {
+        List<Data> checkpoints = new ArrayList<>();
+        Path directory = directory();
+        if (!Files.isDirectory(directory)) return checkpoints;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".json")).forEach(file -> {
+                try {
+                    checkpoints.add(read(file));
+                } catch (Exception e) {
+                    LOGGER.warn("刷新检查点 {} 无效，已删除: {}", file.getFileName(), e.getMessage());
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.error("读取刷新检查点失败", e);
+        }
+        return checkpoints;
+    }
+
+    private static Data read(Path file) throws IOException {
+        JsonObject json = GSON.fromJson(Files.readString(file), JsonObject.class);
+        if (json.get("version").getAsInt() != VERSION) {
+            throw new IllegalStateException("Unsupported checkpoint version");
+        }
+        Map<Integer, Integer> progress = new HashMap<>();
+        json.getAsJsonObject("progress").entrySet()
+                .forEach(entry -> progress.put(Integer.parseInt(entry.getKey()), entry.getValue().getAsInt()));
+        return new Data(
+                json.get("site").getAsString(),
+                json.get("world").getAsString(),
+                json.get("kind").getAsString(),
+                json.has("seed") ? json.get("seed").getAsLong() : null,
+                json.get("config").getAsString(),
+                BitSet.valueOf(Base64.getDecoder().decode(json.get("completed").getAsString())),
+                progress);
+    }
+
+    private static Path pathFor(String siteName) {
+        return directory().resolve(MineSiteUtils.toFileName(siteName) + ".json");
+    }
+
+    private static Path directory() {
+        return MineSiteConfigService.getDataDir().resolve(DIRECTORY);
+    }
+}
@@ -0,0 +1,83 @@
+package com.tr4nce.minesite.service;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.TicketType;
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * 刷新计划的区块加载票据管理
+ * 只为游标所在列及其后的少量区块列添加临时票据，让区块在后台异步加载，
+ * 写入器在尚未加载完成的列前等待，列处理完毕或离开窗口后立即释放票据，
+ * 因此同时持有票据的区块数量与矿场大小无关。
+ */
+class RefreshChunkLoader {
+    static final TicketType<ChunkPos> REFRESH_TICKET =
+            TicketType.create("minesite_refresh", Comparator.comparingLong(ChunkPos::toLong));
+    // 票据半径为 0（票据级别 33）：区块加载到 FULL 状态即可写入，不会进入 ticking 状态
+    private static final int TICKET_RADIUS = 0;
+    // 提前加载的区块列数量（包括游标所在列）
+    private static final int LOOKAHEAD = 8;
+
+    /**
+     * 同步计划的票据：游标所在列和其后若干列持有票据，其余列释放票据
+     * 只能在服务器线程调用
+     */
+    static void updateTickets(ServerLevel level, RefreshPlan plan) {
+        if (plan.getTicketLevel() != null && plan.getTicketLevel() != level) {
+            releaseAll(plan);
+        }
+        plan.setTicketLevel(level);
+
+        BitSet wanted = new BitSet();
+        int lookahead = Math.min(LOOKAHEAD, plan.getPendingColumnCount());
+        for (int i = 0; i < lookahead; i++) {
+            wanted.set(plan.getPendingColumn(i));
+        }
+
+        BitSet ticketed = plan.getTicketedColumns();
+        // 释放已完成或离开预加载窗口的列
+        for (int column = ticketed.nextSetBit(0); column >= 0; column = ticketed.nextSetBit(column + 1)) {
+            if (!wanted.get(column)) {
+                removeTicket(level, plan, column);
+                ticketed.clear(column);
+            }
+        }
+        // 为新进入窗口的列添加票据
+        for (int column = wanted.nextSetBit(0); column >= 0; column = wanted.nextSetBit(column + 1)) {
+            if (!ticketed.get(column)) {
+                ChunkPos chunkPos = columnPos(plan, column);
+                level.getChunkSource().addRegionTicket(REFRESH_TICKET, chunkPos, TICKET_RADIUS, chunkPos);
+                ticketed.set(column);
+            }
+        }
+    }
+
+    // 释放计划持有的所有票据，可以在任意线程调用
+    static void releaseAll(RefreshPlan plan) {
+        ServerLevel level = plan.getTicketLevel();
+        if (level == null) return;
+        if (!level.getServer().isSameThread()) {
+            level.getServer().execute(() -> releaseAll(plan));
+            return;
+        }
+
+        BitSet ticketed = plan.getTicketedColumns();
+        for (int column = ticketed.nextSetBit(0); column >= 0; column = ticketed.nextSetBit(column + 1)) {
+            removeTicket(level, plan, column);
+        }
+        ticketed.clear();
+        plan.setTicketLevel(null);
+    }
+
+    private static void removeTicket(ServerLevel level, RefreshPlan plan, int column) {
+        ChunkPos chunkPos = columnPos(plan, column);
+        level.getChunkSource().removeRegionTicket(REFRESH_TICKET, chunkPos, TICKET_RADIUS, chunkPos);
+    }
+
+    private static ChunkPos columnPos(RefreshPlan plan, int column) {
+        return new ChunkPos(plan.getColumnChunkX(column), plan.getColumnChunkZ(column));
+    }
+}
@@ -0,0 +1,523 @@
+package com.tr4nce.minesite.service;
+
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 矿场刷新计划
+ * 按区块列（16x16）切分区域，每列保存一个调色板索引数组（每个方块一个字节，从快照恢复的计划为两个字节），
+ * 游标逐列遍历，遍历过程中不会为单个方块分配任何对象。
+ * 各列数据可以由后台线程并行生成，生成完成的列会立即对服务器线程可见，处理完的列随即释放。
+ * 待处理的区块列按顺序保存在队列中，从检查点恢复的列从中断处继续。
+ */
+class RefreshPlan {
+    // 调色板最大容量（索引以 byte 存储）
+    static final int MAX_PALETTE_SIZE = 256;
+    // 索引以 short 存储时的调色板最大容量，用于从快照恢复
+    static final int MAX_WIDE_PALETTE_SIZE = 65536;
+
+    private final MineSiteUtils.RegionBounds bounds;
+    private final BlockState[] palette;
+    // 每个区块列的调色板索引，为 null 表示该列尚未生成
+    private final AtomicReferenceArray<byte[]> columns;
+    // 以 short 存储调色板索引的区块列，只用于从快照恢复，其它计划为 null
+    private final AtomicReferenceArray<short[]> wideColumns;
+    // 整个区域使用调色板第 0 项，不存储逐方块数据
+    private final boolean uniform;
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunkCountX;
+    private final int columnCount;
+    private final long totalBlocks;
+    // 方块放置模式
+    private PlacementMode placement = PlacementMode.FULL;
+    // 矿场的挖掘记录，刷新经过的位置会被清除；minedOnly 时只回填被挖掘的位置
+    private MinedBlocks mined;
+    private boolean minedOnly;
+    // 后台回填任务，有玩家在矿场内时暂停
+    private boolean background;
+    // 在第一次写入每个区块列之前清理其中的实体，为 null 时不清理
+    private EntitySweep entitySweep;
+    // 后台准备区块列数据的过程，每处理完一列通知一次，为 null 时数据已经全部就绪
+    private RefreshPlanner.Preparation preparation;
+    // 写入前记录区域原有内容的快照，为 null 时不记录
+    private SiteSnapshot.Writer snapshot;
+    // 直接写入区块段后光照属性发生变化、等待所在区块列写完后统一检查光照的方块位置，仅在服务器线程访问
+    private final LongArrayList pendingRelight = new LongArrayList();
+    // 从快照恢复时表示保持原样的调色板索引，-1 表示没有
+    private int keepIndex = -1;
+    // 从快照恢复时每个区块列写完后需要还原的方块实体，不是恢复任务时为 null
+    private Int2ObjectOpenHashMap<List<CompoundTag>> restoreBlockEntities;
+
+    // 待处理区块列的环形队列，队首为游标所在的列
+    private final int[] pendingColumns;
+    private int pendingHead;
+    private int pendingSize;
+    // 区块列开始处理时的列内偏移，从检查点恢复时为中断处
+    private final int[] resumeOffsets;
+    // 已添加区块加载票据的区块列，仅在服务器线程访问
+    private final BitSet ticketedColumns = new BitSet();
+    private ServerLevel ticketLevel;
+
+    // 游标：当前区块列及列内偏移
+    private int column;
+    private int offset;
+    // 当前区块列的几何信息
+    private int columnMinX;
+    private int columnMinZ;
+    private int columnSizeX;
+    private int columnLayerSize;
+    private int columnSize;
+    private byte[] columnData;
+    private short[] wideColumnData;
+    private long blocksVisited;
+    // 差量刷新统计：实际写入和因状态相同而跳过的方块数量
+    private long blocksWritten;
+    private long blocksSkipped;
+
+    private RefreshPlan(MineSiteUtils.RegionBounds bounds, BlockState[] palette, boolean uniform, boolean wide) {
+        int maxPaletteSize = wide ? MAX_WIDE_PALETTE_SIZE : MAX_PALETTE_SIZE;
+        if (palette.length == 0 || palette.length > maxPaletteSize) {
+            throw new IllegalArgumentException("Palette size must be between 1 and " + maxPaletteSize);
+        }
+        this.bounds = bounds;
+        this.palette = palette;
+        this.minChunkX = bounds.getMinX() >> 4;
+        this.minChunkZ = bounds.getMinZ() >> 4;
+        this.chunkCountX = (bounds.getMaxX() >> 4) - minChunkX + 1;
+        int chunkCountZ = (bounds.getMaxZ() >> 4) - minChunkZ + 1;
+        this.columnCount = chunkCountX * chunkCountZ;
+        this.columns = new AtomicReferenceArray<>(uniform || wide ? 0 : columnCount);
+        this.wideColumns = wide ? new AtomicReferenceArray<>(columnCount) : null;
+        this.uniform = uniform;
+        this.totalBlocks = bounds.getVolume();
+        this.pendingColumns = new int[columnCount];
+        this.resumeOffsets = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            pendingColumns[i] = i;
+        }
+        this.pendingSize = columnCount;
+        enterColumn(pendingColumns[0]);
+    }
+
+    // 创建整个区域都使用同一方块状态的计划（例如清除为空气）
+    static RefreshPlan uniform(MineSiteUtils.RegionBounds bounds, BlockState state) {
+        return new RefreshPlan(bounds, new BlockState[]{state}, true, false);
+    }
+
+    // 创建按调色板索引填充的计划，各列数据需通过 setColumnData 写入
+    static RefreshPlan withPalette(MineSiteUtils.RegionBounds bounds, BlockState[] palette) {
+        return new RefreshPlan(bounds, palette.clone(), false, false);
+    }
+
+    // 创建索引以 short 存储的计划，调色板最多 MAX_WIDE_PALETTE_SIZE 项，各列数据需通过 setWideColumnData 写入
+    static RefreshPlan withWidePalette(MineSiteUtils.RegionBounds bounds, BlockState[] palette) {
+        return new RefreshPlan(bounds, palette.clone(), false, true);
+    }
+
+    PlacementMode getPlacement() {
+        return placement;
+    }
+
+    void setPlacement(PlacementMode placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * 关联矿场的挖掘记录，只能在计划开始写入之前调用
+     * @param minedOnly 为 true 时只回填被挖掘的位置，其余位置由 next 返回 null
+     */
+    void setMined(MinedBlocks mined, boolean minedOnly) {
+        this.mined = mined;
+        this.minedOnly = minedOnly;
+    }
+
+    boolean isMinedOnly() {
+        return minedOnly;
+    }
+
+    boolean isBackground() {
+        return background;
+    }
+
+    void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    EntitySweep getEntitySweep() {
+        return entitySweep;
+    }
+
+    void setEntitySweep(EntitySweep entitySweep) {
+        this.entitySweep = entitySweep;
+    }
+
+    LongArrayList getPendingRelight() {
+        return pendingRelight;
+    }
+
+    RefreshPlanner.Preparation getPreparation() {
+        return preparation;
+    }
+
+    void setPreparation(RefreshPlanner.Preparation preparation) {
+        this.preparation = preparation;
+    }
+
+    SiteSnapshot.Writer getSnapshot() {
+        return snapshot;
+    }
+
+    void setSnapshot(SiteSnapshot.Writer snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    // 调色板中该索引的位置不写入，只能在计划开始写入之前调用
+    void setKeepIndex(int keepIndex) {
+        this.keepIndex = keepIndex;
+    }
+
+    boolean isRestore() {
+        return restoreBlockEntities != null;
+    }
+
+    void setRestoreBlockEntities(Int2ObjectOpenHashMap<List<CompoundTag>> restoreBlockEntities) {
+        this.restoreBlockEntities = restoreBlockEntities;
+    }
+
+    // 取出区块列需要还原的方块实体，每列只返回一次
+    List<CompoundTag> takeRestoreBlockEntities(int column) {
+        return restoreBlockEntities == null ? null : restoreBlockEntities.remove(column);
+    }
+
+    // 从待处理队列中移除没有被挖掘方块的区块列，只能在计划开始写入之前调用
+    void retainMinedColumns() {
+        if (!minedOnly) return;
+        int retained = 0;
+        for (int i = 0; i < pendingSize; i++) {
+            int c = pendingColumns[(pendingHead + i) % columnCount];
+            int chunkX = getColumnChunkX(c);
+            int chunkZ = getColumnChunkZ(c);
+            if (mined.anyMinedInChunk(chunkX, chunkZ)) {
+                pendingColumns[retained++] = c;
+            } else {
+                blocksVisited += getColumnSize(c) - resumeOffsets[c];
+            }
+        }
+        pendingHead = 0;
+        pendingSize = retained;
+        if (pendingSize > 0) {
+            enterColumn(pendingColumns[0]);
+        }
+    }
+
+    MineSiteUtils.RegionBounds getBounds() {
+        return bounds;
+    }
+
+    int getPaletteSize() {
+        return palette.length;
+    }
+
+    long getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    long getBlocksVisited() {
+        return blocksVisited;
+    }
+
+    int getColumnCount() {
+        return columnCount;
+    }
+
+    // 指定区块列内的方块数量
+    int getColumnSize(int column) {
+        return columnSizeX(column) * columnSizeZ(column) * bounds.getSizeY();
+    }
+
+    // 指定区块列的 X 宽度
+    int getColumnSizeX(int column) {
+        return columnSizeX(column);
+    }
+
+    // 指定区块列每一层（同一 Y）的方块数量
+    int getColumnLayerSize(int column) {
+        return columnSizeX(column) * columnSizeZ(column);
+    }
+
+    void setColumnData(int column, byte[] data) {
+        if (data.length != getColumnSize(column)) {
+            throw new IllegalArgumentException("Column data size mismatch for column " + column);
+        }
+        columns.set(column, data);
+    }
+
+    void setWideColumnData(int column, short[] data) {
+        if (data.length != getColumnSize(column)) {
+            throw new IllegalArgumentException("Column data size mismatch for column " + column);
+        }
+        wideColumns.set(column, data);
+    }
+
+    // 游标所在区块列的数据是否已经生成，调用 next 之前必须确认
+    boolean isCurrentColumnReady() {
+        if (uniform || columnData != null || wideColumnData != null) return true;
+        if (wideColumns != null) {
+            wideColumnData = wideColumns.get(column);
+            return wideColumnData != null;
+        }
+        columnData = columns.get(column);
+        return columnData != null;
+    }
+
+    boolean hasNext() {
+        return pendingSize > 0;
+    }
+
+    // 游标所在的区块列
+    int getColumn() {
+        return column;
+    }
+
+    // 尚未完成的区块列数量
+    int getPendingColumnCount() {
+        return pendingSize;
+    }
+
+    // 队列中第 index 个待处理的区块列（0 为游标所在列）
+    int getPendingColumn(int index) {
+        return pendingColumns[(pendingHead + index) % columnCount];
+    }
+
+    BitSet getTicketedColumns() {
+        return ticketedColumns;
+    }
+
+    ServerLevel getTicketLevel() {
+        return ticketLevel;
+    }
+
+    void setTicketLevel(ServerLevel ticketLevel) {
+        this.ticketLevel = ticketLevel;
+    }
+
+    // 指定区块列的区块坐标
+    int getColumnChunkX(int column) {
+        return minChunkX + column % chunkCountX;
+    }
+
+    int getColumnChunkZ(int column) {
+        return minChunkZ + column / chunkCountX;
+    }
+
+    // 指定区块列已处理到的列内偏移，已完成的列没有意义
+    int getColumnProgress(int column) {
+        return column == this.column ? offset : resumeOffsets[column];
+    }
+
+    // 已全部处理完成的区块列
+    BitSet getCompletedColumns() {
+        BitSet completed = new BitSet(columnCount);
+        completed.set(0, columnCount);
+        for (int i = 0; i < pendingSize; i++) {
+            completed.clear(getPendingColumn(i));
+        }
+        return completed;
+    }
+
+    /**
+     * 从检查点恢复进度，只能在计划开始写入之前调用
+     * @param completed 已完成的区块列
+     * @param progress 未完成区块列的列内偏移（列号到偏移）
+     */
+    void restoreProgress(BitSet completed, Map<Integer, Integer> progress) {
+        pendingHead = 0;
+        pendingSize = 0;
+        blocksVisited = 0;
+        for (int c = 0; c < columnCount; c++) {
+            if (completed.get(c)) {
+                blocksVisited += getColumnSize(c);
+                continue;
+            }
+            int resume = progress.getOrDefault(c, 0);
+            if (resume < 0 || resume >= getColumnSize(c)) {
+                throw new IllegalArgumentException("Invalid progress " + resume + " for column " + c);
+            }
+            resumeOffsets[c] = resume;
+            blocksVisited += resume;
+            pendingColumns[pendingSize++] = c;
+        }
+        if (pendingSize > 0) {
+            enterColumn(pendingColumns[0]);
+        }
+    }
+
+    // 游标所在区块列的区块坐标
+    int getChunkX() {
+        return getColumnChunkX(column);
+    }
+
+    int getChunkZ() {
+        return getColumnChunkZ(column);
+    }
+
+    // 游标所在的区块段（16 格高）的段坐标
+    int getSectionY() {
+        return (bounds.getMinY() + offset / columnLayerSize) >> 4;
+    }
+
+    // 当前区块段内剩余的方块数量，列内数据按 Y 优先排列，因此同一区块段的方块是连续的
+    int getRemainingInSection() {
+        int sectionTop = Math.min(bounds.getMaxY(), (getSectionY() << 4) + 15);
+        return (sectionTop - bounds.getMinY() + 1) * columnLayerSize - offset;
+    }
+
+    // 计划是否整体为同一个方块状态
+    boolean isUniform() {
+        return uniform;
+    }
+
+    // 整体计划使用的方块状态，仅在 isUniform 时有意义
+    BlockState getUniformState() {
+        return palette[0];
+    }
+
+    // 在当前区块段内跳过指定数量的方块，数量不能超过 getRemainingInSection
+    void skip(int count) {
+        blocksVisited += count;
+        offset += count;
+        if (offset >= columnSize) {
+            completeColumn();
+        }
+    }
+
+    /**
+     * 只回填被挖掘位置时，把游标移动到接下来 max 个方块中第一个被挖掘的位置
+     * 区块列的每一行（同一 Y、Z）在挖掘记录中是连续的，逐行查找被挖掘的位，不逐个检查方块
+     * @param max 最多跳过的方块数量，不能超过 getRemainingInSection
+     * @return 跳过的方块数量，等于 max 时范围内没有被挖掘的位置
+     */
+    int skipUnmined(int max) {
+        int end = offset + max;
+        int target = offset;
+        while (target < end) {
+            int y = target / columnLayerSize;
+            int rest = target - y * columnLayerSize;
+            int z = rest / columnSizeX;
+            int x = rest - z * columnSizeX;
+            int rowEnd = Math.min(end, target - x + columnSizeX);
+            long from = bounds.indexOf(columnMinX + x, bounds.getMinY() + y, columnMinZ + z);
+            long found = mined.nextMined(from, from + (rowEnd - target));
+            if (found >= 0) {
+                target += (int) (found - from);
+                break;
+            }
+            target = rowEnd;
+        }
+        int skipped = target - offset;
+        if (skipped > 0) {
+            skip(skipped);
+        }
+        return skipped;
+    }
+
+    void recordWritten(int count) {
+        blocksWritten += count;
+    }
+
+    void recordSkipped(int count) {
+        blocksSkipped += count;
+    }
+
+    long getBlocksWritten() {
+        return blocksWritten;
+    }
+
+    long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    /**
+     * 取出游标处的方块
+     * @param pos 用于接收坐标的可变位置，避免分配新对象
+     * @return 该位置计划放置的方块状态，只回填被挖掘位置且该位置未被挖掘、或恢复时该位置保持原样时返回 null
+     */
+    BlockState next(BlockPos.MutableBlockPos pos) {
+        int y = offset / columnLayerSize;
+        int rest = offset - y * columnLayerSize;
+        int z = rest / columnSizeX;
+        int x = rest - z * columnSizeX;
+        pos.set(columnMinX + x, bounds.getMinY() + y, columnMinZ + z);
+
+        int index = uniform ? 0 : wideColumnData != null ? wideColumnData[offset] & 0xFFFF : columnData[offset] & 0xFF;
+        BlockState state = index == keepIndex ? null : palette[index];
+        if (mined != null && !mined.clear(bounds.indexOf(pos.getX(), pos.getY(), pos.getZ())) && minedOnly) {
+            state = null;
+        }
+
+        blocksVisited++;
+        if (++offset >= columnSize) {
+            completeColumn();
+        }
+        return state;
+    }
+
+    // 当前区块列已全部处理，释放其数据并移动到队列中的下一列
+    private void completeColumn() {
+        if (wideColumns != null) {
+            wideColumns.set(column, null);
+        } else if (!uniform) {
+            columns.set(column, null);
+        }
+        pollPendingColumn();
+        if (preparation != null) {
+            preparation.columnCompleted();
+        }
+        if (pendingSize > 0) {
+            enterColumn(pendingColumns[pendingHead]);
+        }
+    }
+
+    private int pollPendingColumn() {
+        int polled = pendingColumns[pendingHead];
+        pendingHead = (pendingHead + 1) % columnCount;
+        pendingSize--;
+        return polled;
+    }
+
+    // 将游标移动到指定区块列，从检查点恢复的列从中断处继续
+    private void enterColumn(int column) {
+        this.column = column;
+        this.offset = resumeOffsets[column];
+        this.columnData = null;
+        this.wideColumnData = null;
+        int chunkX = minChunkX + column % chunkCountX;
+        int chunkZ = minChunkZ + column / chunkCountX;
+        columnMinX = Math.max(bounds.getMinX(), chunkX << 4);
+        columnMinZ = Math.max(bounds.getMinZ(), chunkZ << 4);
+        columnSizeX = columnSizeX(column);
+        columnLayerSize = columnSizeX * columnSizeZ(column);
+        columnSize = columnLayerSize * bounds.getSizeY();
+    }
+
+    private int columnSizeX(int column) {
+        int chunkX = minChunkX + column % chunkCountX;
+        return Math.min(bounds.getMaxX(), (chunkX << 4) + 15) - Math.max(bounds.getMinX(), chunkX << 4) + 1;
+    }
+
+    private int columnSizeZ(int column) {
+        int chunkZ = minChunkZ + column / chunkCountX;
+        return Math.min(bounds.getMaxZ(), (chunkZ << 4) + 15) - Math.max(bounds.getMinZ(), chunkZ << 4) + 1;
+    }
+}
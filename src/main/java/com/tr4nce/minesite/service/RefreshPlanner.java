@@ -0,0 +1,196 @@
+package com.tr4nce.minesite.service;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 刷新计划生成器
+ * 以区块列为单位切分计划，在有界的 ForkJoin 线程池中并行生成。
+ * 每个区块列使用按顺序从根随机数拆分出的 SplittableRandom，
+ * 因此在根种子相同时结果与线程调度无关，可以复现。
+ * 区块列按计划的处理顺序准备，最多领先写入进度 WINDOW 列，写完的列随即释放，
+ * 因此计划占用的内存与区域大小无关。
+ */
+class RefreshPlanner {
+    private static final int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    // 已准备好、尚未写完的区块列上限
+    private static final int WINDOW = Math.max(16, PARALLELISM * 4);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("MineSite-Planner-" + THREAD_ID.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    // 生成一个区块列的调色板索引，实现需要是线程安全的
+    interface ColumnSampler {
+        /**
+         * @param data 待填充的区块列数据，按 X、Z、Y 的顺序排列（X 变化最快），第 0 层为矿场最低层
+         * @param sizeX 区块列的 X 宽度
+         * @param layerSize 每层的方块数量
+         */
+        void fill(byte[] data, int sizeX, int layerSize, SplittableRandom random);
+    }
+
+    // 读取已经生成好的区块列数据，实现需要是线程安全的
+    interface ColumnLoader {
+        byte[] load(int column);
+    }
+
+    // 接收准备好的区块列数据（例如写入布局缓存），在计划线程池中调用，失败时自行处理
+    interface ColumnSink {
+        void accept(int column, byte[] data);
+
+        // 所有区块列都已交给 accept
+        void commit();
+
+        // 计划在准备完成之前被放弃
+        void abort();
+    }
+
+    /**
+     * 一个计划的区块列准备过程
+     * 计划每处理完一个区块列调用一次 columnCompleted，准备窗口随之向后移动。
+     */
+    static final class Preparation {
+        private final RefreshPlan plan;
+        private final ColumnLoader source;
+        private final ColumnSink sink;
+        // 需要准备的区块列，按计划的处理顺序排列
+        private final int[] order;
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        // 已提交准备的区块列数量和计划已处理完的区块列数量
+        private int submitted;
+        private int completed;
+        private volatile boolean cancelled;
+
+        private Preparation(RefreshPlan plan, ColumnLoader source, ColumnSink sink) {
+            this.plan = plan;
+            this.source = source;
+            this.sink = sink;
+            this.order = new int[plan.getPendingColumnCount()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = plan.getPendingColumn(i);
+            }
+            this.remaining = new AtomicInteger(order.length);
+        }
+
+        // 所有区块列准备完成时结束的 Future，被取消后不会结束
+        CompletableFuture<Void> future() {
+            return result;
+        }
+
+        // 计划处理完一个区块列，可以在窗口末尾准备下一列
+        synchronized void columnCompleted() {
+            completed++;
+            fill();
+        }
+
+        // 放弃尚未开始的准备工作，未完成的布局缓存不会保留
+        void cancel() {
+            cancelled = true;
+            if (sink != null && remaining.get() > 0) {
+                sink.abort();
+            }
+        }
+
+        private void start() {
+            if (order.length == 0) {
+                result.complete(null);
+                return;
+            }
+            synchronized (this) {
+                fill();
+            }
+        }
+
+        private void fill() {
+            while (!cancelled && submitted < order.length && submitted < completed + WINDOW) {
+                int column = order[submitted++];
+                POOL.execute(() -> prepare(column));
+            }
+        }
+
+        private void prepare(int column) {
+            if (cancelled || result.isDone()) return;
+            byte[] data;
+            try {
+                data = source.load(column);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+                if (sink != null) {
+                    sink.abort();
+                }
+                return;
+            }
+            boolean last = remaining.decrementAndGet() == 0;
+            // 缓存在最后一列交给计划之前提交，计划写完时缓存已经完整
+            if (sink != null) {
+                sink.accept(column, data);
+                if (last) {
+                    sink.commit();
+                }
+            }
+            plan.setColumnData(column, data);
+            if (last) {
+                result.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 按处理顺序并行生成计划待处理的区块列，只回填被挖掘位置时只生成队列中保留的区块列
+     * @param plan 待填充的计划
+     * @param sampler 区块列生成器
+     * @param root 根随机数，按区块列顺序拆分
+     * @param sink 接收生成结果，为 null 时不接收
+     */
+    static Preparation generate(RefreshPlan plan, ColumnSampler sampler, SplittableRandom root, ColumnSink sink) {
+        // 拆分在当前线程上按区块列顺序完成，保证每列的随机序列固定；不生成的列同样拆分，其余列的结果不变
+        BitSet pending = pendingColumns(plan);
+        SplittableRandom[] randoms = new SplittableRandom[plan.getColumnCount()];
+        for (int column = 0; column < randoms.length; column++) {
+            SplittableRandom random = root.split();
+            if (pending.get(column)) {
+                randoms[column] = random;
+            }
+        }
+        return start(plan, column -> generateColumn(plan, column, sampler, randoms[column]), sink);
+    }
+
+    /**
+     * 按处理顺序并行读取已有布局中待处理的区块列，不做任何生成工作
+     * @param plan 待填充的计划
+     * @param loader 区块列数据来源
+     */
+    static Preparation load(RefreshPlan plan, ColumnLoader loader) {
+        return start(plan, loader, null);
+    }
+
+    private static Preparation start(RefreshPlan plan, ColumnLoader source, ColumnSink sink) {
+        Preparation preparation = new Preparation(plan, source, sink);
+        plan.setPreparation(preparation);
+        preparation.start();
+        return preparation;
+    }
+
+    private static BitSet pendingColumns(RefreshPlan plan) {
+        BitSet pending = new BitSet(plan.getColumnCount());
+        for (int i = 0; i < plan.getPendingColumnCount(); i++) {
+            pending.set(plan.getPendingColumn(i));
+        }
+        return pending;
+    }
+
+    private static byte[] generateColumn(RefreshPlan plan, int column, ColumnSampler sampler, SplittableRandom random) {
+        byte[] data = new byte[plan.getColumnSize(column)];
+        sampler.fill(data, plan.getColumnSizeX(column), plan.getColumnLayerSize(column), random);
+        return data;
+    }
+}
@@ -0,0 +1,90 @@
+package com.tr4nce.minesite.service;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * 全局公平调度器
+ * 所有正在刷新的矿场共享同一个tick预算，按加权轮询依次分配配额。
+ * 预算用尽时未轮到的矿场保留在队首，下一tick优先处理，避免饥饿和突发。
+ */
+class RefreshScheduler {
+    // 每单位权重在一轮中分配的方块数量
+    static final int BLOCKS_PER_WEIGHT = 256;
+
+    // 矿场的单次工作
+    interface SiteWorker {
+        // 为矿场执行一份配额，返回实际处理的方块数量
+        int work(String siteName, int maxBlocks);
+
+        // 矿场是否仍有待处理的工作
+        boolean isPending(String siteName);
+    }
+
+    // 轮询顺序，仅在服务器线程访问
+    private final ArrayDeque<String> rotation = new ArrayDeque<>();
+    private final Set<String> members = new HashSet<>();
+
+    // 将新加入的矿场追加到轮询队尾
+    void sync(Collection<String> activeSites) {
+        for (String siteName : activeSites) {
+            if (members.add(siteName)) {
+                rotation.addLast(siteName);
+            }
+        }
+    }
+
+    /**
+     * 按加权轮询在矿场之间分配预算
+     * @param budget 本tick的全局预算
+     * @param weightOf 矿场权重
+     * @param worker 实际执行刷新的回调
+     * @param onWaiting 本tick有待处理工作却没有分到预算的矿场
+     * @return 本tick处理的方块总数
+     */
+    long run(RefreshBudget budget, ToIntFunction<String> weightOf, SiteWorker worker, Consumer<String> onWaiting) {
+        long total = 0;
+        Set<String> served = new HashSet<>();
+        // 连续没有进展的矿场数量，转满一圈仍无进展则结束本tick
+        int idle = 0;
+        while (!rotation.isEmpty() && budget.hasRemaining() && idle < rotation.size()) {
+            String siteName = rotation.pollFirst();
+            if (!worker.isPending(siteName)) {
+                members.remove(siteName);
+                continue;
+            }
+
+            int quantum = Math.max(1, weightOf.applyAsInt(siteName)) * BLOCKS_PER_WEIGHT;
+            int written = worker.work(siteName, budget.nextBatch(quantum));
+            budget.consume(written);
+            total += written;
+            served.add(siteName);
+            idle = written > 0 ? 0 : idle + 1;
+
+            if (worker.isPending(siteName)) {
+                rotation.addLast(siteName);
+            } else {
+                members.remove(siteName);
+            }
+        }
+
+        // 预算用尽时仍在队首等待的矿场
+        if (!budget.hasRemaining()) {
+            for (String siteName : rotation) {
+                if (!served.contains(siteName)) {
+                    onWaiting.accept(siteName);
+                }
+            }
+        }
+        return total;
+    }
+
+    void clear() {
+        rotation.clear();
+        members.clear();
+    }
+}
@@ -0,0 +1,141 @@
+package com.tr4nce.minesite.service;
+
+import com.google.gson.JsonObject;
+import com.tr4nce.minesite.utils.CronExpression;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * 矿场定时刷新时间表
+ * 所有矿场的下一次刷新时间保存在一个按时间排序的优先队列中，每 tick 只查看队首，
+ * 与矿场数量无关。矿场被重新安排时旧的队列项不会立即删除，而是在出队时按版本号丢弃。
+ * 只在服务器线程访问。
+ */
+class RefreshTimetable {
+    // 矿场的刷新周期
+    interface Schedule {
+        // 严格晚于 after 的下一次刷新时间，不会再刷新时返回 null
+        Instant next(Instant after);
+    }
+
+    private record Entry(Instant due, String siteName, long version) {
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparing(Entry::due));
+    private final Map<String, Schedule> schedules = new HashMap<>();
+    // 每个矿场当前有效的队列项版本
+    private final Map<String, Long> versions = new HashMap<>();
+    private long nextVersion;
+
+    /**
+     * 解析矿场配置中的 schedule 对象
+     * 支持 {"interval": "30m"}（秒数或带 s/m/h/d 后缀）和 {"cron": "0 4 * * *"}
+     * @return 未配置刷新周期时返回 null
+     * @throws IllegalArgumentException 配置格式不正确
+     */
+    static Schedule parse(JsonObject schedule) {
+        if (schedule.has("cron")) {
+            CronExpression cron = CronExpression.parse(schedule.get("cron").getAsString());
+            ZoneId zone = ZoneId.systemDefault();
+            return after -> {
+                ZonedDateTime next = cron.next(after.atZone(zone));
+                return next == null ? null : next.toInstant();
+            };
+        }
+        if (schedule.has("interval")) {
+            Duration interval = parseDuration(schedule.get("interval").getAsString());
+            if (interval.isZero()) return null;
+            return after -> after.plus(interval);
+        }
+        return null;
+    }
+
+    /**
+     * 安排矿场的下一次刷新
+     * @param last 上一次按时间表刷新的时间
+     * @param now 当前时间，错过的刷新合并为一次并立即执行
+     */
+    void add(String siteName, Schedule schedule, Instant last, Instant now) {
+        schedules.put(siteName, schedule);
+        Instant due = schedule.next(last);
+        if (due != null && due.isBefore(now)) {
+            due = now;
+        }
+        enqueue(siteName, due);
+    }
+
+    // 矿场在 time 时刷新过，从该时间重新计算下一次刷新
+    void reschedule(String siteName, Instant time) {
+        Schedule schedule = schedules.get(siteName);
+        if (schedule != null) {
+            enqueue(siteName, schedule.next(time));
+        }
+    }
+
+    // 移除矿场的刷新周期，队列中的旧项在出队时丢弃
+    void remove(String siteName) {
+        schedules.remove(siteName);
+        versions.remove(siteName);
+    }
+
+    void clear() {
+        queue.clear();
+        schedules.clear();
+        versions.clear();
+    }
+
+    // 依次取出所有到期的矿场，回调中应当调用 reschedule 安排下一次刷新
+    void pollDue(Instant now, Consumer<String> fire) {
+        while (!queue.isEmpty() && !queue.peek().due().isAfter(now)) {
+            Entry entry = queue.poll();
+            // 已被重新安排或移除的旧项
+            if (!Long.valueOf(entry.version()).equals(versions.get(entry.siteName()))) continue;
+            versions.remove(entry.siteName());
+            fire.accept(entry.siteName());
+        }
+    }
+
+    private void enqueue(String siteName, Instant due) {
+        if (due == null) {
+            versions.remove(siteName);
+            return;
+        }
+        long version = nextVersion++;
+        versions.put(siteName, version);
+        queue.add(new Entry(due, siteName, version));
+    }
+
+    private static Duration parseDuration(String text) {
+        text = text.trim().toLowerCase();
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("Empty interval");
+        }
+        char unit = text.charAt(text.length() - 1);
+        long value = Character.isDigit(unit)
+                ? Long.parseLong(text)
+                : Long.parseLong(text.substring(0, text.length() - 1));
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative interval: " + text);
+        }
+        return switch (unit) {
+            case 'm' -> Duration.ofMinutes(value);
+            case 'h' -> Duration.ofHours(value);
+            case 'd' -> Duration.ofDays(value);
+            case 's' -> Duration.ofSeconds(value);
+            default -> {
+                if (!Character.isDigit(unit)) {
+                    throw new IllegalArgumentException("Unknown interval unit: " + text);
+                }
+                yield Duration.ofSeconds(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,246 @@
+package com.tr4nce.minesite.service;
+
+import com.tr4nce.minesite.config.Config;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.FallingBlock;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import net.minecraft.world.level.lighting.LightEngine;
+
+import java.util.List;
+
+/**
+ * 区块段批量写入器
+ * 按区块段（16x16x16）成组地把刷新计划直接写入 LevelChunkSection，
+ * 不触发邻居更新和方块物理，每个区块段每 tick 只向客户端发送一个
+ * ClientboundSectionBlocksUpdatePacket，光照检查推迟到区块列写完后统一提交。
+ * raw 模式下所有不带方块实体的方块都直接写入；full 模式下只有把普通方块替换为
+ * 不透明的完整方块（矿石、石头等）时直接写入，这种替换不会改变邻居的形状、支撑或红石，
+ * 其余方块与 no_updates 模式一样按计划的放置标志调用 Level#setBlock。
+ * 差量模式下只写入与当前状态不同的方块，已经是空气的区块段在清除时整体跳过。
+ */
+class SectionBlockWriter {
+    // 与 LevelChunk#setBlockState 保持一致需要维护的高度图
+    private static final Heightmap.Types[] HEIGHTMAP_TYPES = {
+            Heightmap.Types.MOTION_BLOCKING,
+            Heightmap.Types.MOTION_BLOCKING_NO_LEAVES,
+            Heightmap.Types.OCEAN_FLOOR,
+            Heightmap.Types.WORLD_SURFACE
+    };
+
+    // 差量模式下跳过一个方块的开销为写入的几分之一
+    private static final int SKIP_COST_DIVISOR = 8;
+
+    private final ServerLevel level;
+    private final boolean differential;
+    private final LevelLightEngine lightEngine;
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    // 当前区块段内发生变化的方块（段内相对坐标）
+    private final ShortOpenHashSet changedPositions = new ShortOpenHashSet();
+
+    SectionBlockWriter(ServerLevel level) {
+        this.level = level;
+        this.lightEngine = level.getChunkSource().getLightEngine();
+        this.differential = Config.DIFFERENTIAL_REFRESH.get();
+    }
+
+    /**
+     * 按计划写入方块
+     * 差量模式下与当前状态相同的方块只读取不写入，其开销按写入的 1/SKIP_COST_DIVISOR 计算
+     * @param plan 刷新计划
+     * @param maxBlocks 本次最多处理的方块数量（以写入开销计）
+     * @return 实际消耗的方块配额，计划中下一列尚未生成时可能提前返回
+     */
+    int apply(RefreshPlan plan, int maxBlocks) {
+        long limit = (long) maxBlocks * SKIP_COST_DIVISOR;
+        long cost = 0;
+        RefreshChunkLoader.updateTickets(level, plan);
+        while (cost < limit && plan.hasNext()) {
+            // 只处理已加载的区块，不在此处同步加载区块；游标所在列已有票据，等待其在后台加载完成
+            LevelChunk chunk = level.getChunkSource().getChunkNow(plan.getChunkX(), plan.getChunkZ());
+            if (chunk == null) break;
+            // 该列仍在后台生成，等待下一次调度
+            if (!plan.isCurrentColumnReady()) break;
+            int column = plan.getColumn();
+            // 第一次写入区块列之前清理其中的实体，实体在区块加载后异步载入，载入之前等待
+            EntitySweep sweep = plan.getEntitySweep();
+            if (sweep != null && !sweep.isSwept(column)) {
+                if (!level.areEntitiesLoaded(ChunkPos.asLong(plan.getChunkX(), plan.getChunkZ()))) break;
+                cost += (long) sweep.sweepColumn(level, column, plan.getChunkX(), plan.getChunkZ()) * SKIP_COST_DIVISOR;
+                if (cost >= limit) break;
+            }
+            // 快照只在第一次写入区块段之前记录该区块段
+            SiteSnapshot.Writer snapshot = plan.getSnapshot();
+            if (snapshot != null) {
+                cost += snapshot.capture(chunk, plan.getSectionY());
+                if (cost >= limit) break;
+            }
+            cost += writeSection(chunk, plan, limit - cost);
+            // 区块列处理完毕后统一检查光照，并及时更新票据；检查光照时该列仍持有票据
+            if (!plan.hasNext() || plan.getColumn() != column) {
+                flushRelight(level, plan);
+                restoreBlockEntities(chunk, plan.takeRestoreBlockEntities(column));
+                RefreshChunkLoader.updateTickets(level, plan);
+            }
+        }
+        return (int) ((cost + SKIP_COST_DIVISOR - 1) / SKIP_COST_DIVISOR);
+    }
+
+    // 在同一区块段内连续写入方块，并在结束时统一同步给客户端，返回消耗的开销
+    private long writeSection(LevelChunk chunk, RefreshPlan plan, long limit) {
+        int sectionY = plan.getSectionY();
+        int remaining = plan.getRemainingInSection();
+        // 超出维度建筑高度的区块段不存在，与原版 setBlock 一样忽略这些位置
+        if (sectionY < level.getMinSection() || sectionY >= level.getMaxSection()) {
+            int count = (int) Math.min(remaining, limit);
+            plan.skip(count);
+            plan.recordSkipped(count);
+            return count;
+        }
+        LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY));
+
+        // 清除时整个区块段已经是空气，直接跳过
+        if (differential && plan.isUniform() && plan.getUniformState().isAir() && section.hasOnlyAir()) {
+            int count = (int) Math.min(remaining, limit);
+            plan.skip(count);
+            plan.recordSkipped(count);
+            return count;
+        }
+
+        SectionPos sectionPos = SectionPos.of(chunk.getPos(), sectionY);
+        boolean empty = section.hasOnlyAir();
+        long cost = 0;
+        int written = 0;
+        int skipped = 0;
+
+        changedPositions.clear();
+        for (int i = 0; i < remaining && cost < limit; i++) {
+            // 只回填被挖掘位置时，直接跳到区块段内下一个被挖掘的位置，跳过的部分按一次读取计算开销
+            if (plan.isMinedOnly()) {
+                int gap = plan.skipUnmined(remaining - i);
+                if (gap > 0) {
+                    skipped += gap;
+                    cost++;
+                    i += gap;
+                    if (i >= remaining) break;
+                }
+            }
+            BlockState state = plan.next(pos);
+            // 只回填被挖掘位置时，未被挖掘的位置保持不变
+            if (state == null) {
+                skipped++;
+                cost++;
+                continue;
+            }
+            int localX = pos.getX() & 15;
+            int localY = pos.getY() & 15;
+            int localZ = pos.getZ() & 15;
+
+            // 差量模式：当前状态与计划相同则不写入
+            if (differential && section.getBlockState(localX, localY, localZ) == state) {
+                skipped++;
+                cost++;
+                continue;
+            }
+            written++;
+            cost += SKIP_COST_DIVISOR;
+
+            // 不能直接写入的方块交由原版逻辑处理，保证方块实体和方块更新正确
+            if (!canWriteDirectly(plan.getPlacement(), section.getBlockState(localX, localY, localZ), state)) {
+                level.setBlock(pos, state, plan.getPlacement().getFlags());
+                empty = section.hasOnlyAir();
+                continue;
+            }
+
+            BlockState oldState = section.setBlockState(localX, localY, localZ, state);
+            if (oldState == state) continue;
+
+            if (oldState.hasBlockEntity()) {
+                chunk.removeBlockEntity(pos);
+            }
+            for (Heightmap.Types type : HEIGHTMAP_TYPES) {
+                chunk.getOrCreateHeightmapUnprimed(type).update(localX, pos.getY(), localZ, state);
+            }
+            boolean nowEmpty = section.hasOnlyAir();
+            if (nowEmpty != empty) {
+                lightEngine.updateSectionStatus(sectionPos, nowEmpty);
+                empty = nowEmpty;
+            }
+            if (LightEngine.hasDifferentLightProperties(chunk, pos, oldState, state)) {
+                chunk.getSkyLightSources().update(chunk, localX, pos.getY(), localZ);
+                plan.getPendingRelight().add(pos.asLong());
+            }
+            level.onBlockStateChange(pos, oldState, state);
+            changedPositions.add(SectionPos.sectionRelativePos(pos));
+        }
+        plan.recordWritten(written);
+        plan.recordSkipped(skipped);
+
+        if (!changedPositions.isEmpty()) {
+            chunk.setUnsaved(true);
+            // 整个区块段的变化合并为一个数据包
+            ClientboundSectionBlocksUpdatePacket packet =
+                    new ClientboundSectionBlocksUpdatePacket(sectionPos, changedPositions, section);
+            for (ServerPlayer player : level.getChunkSource().chunkMap.getPlayers(chunk.getPos(), false)) {
+                player.connection.send(packet);
+            }
+        }
+        return cost;
+    }
+
+    // 从快照恢复时，区块列写完后还原其中方块实体的数据
+    private void restoreBlockEntities(LevelChunk chunk, List<CompoundTag> tags) {
+        if (tags == null) return;
+        for (CompoundTag tag : tags) {
+            BlockPos blockPos = BlockEntity.getPosFromTag(tag);
+            BlockEntity blockEntity = chunk.getBlockEntity(blockPos);
+            if (blockEntity == null) continue;
+            blockEntity.load(tag);
+            blockEntity.setChanged();
+            BlockState state = blockEntity.getBlockState();
+            level.sendBlockUpdated(blockPos, state, state, Block.UPDATE_CLIENTS);
+        }
+    }
+
+    /**
+     * 是否可以跳过 setBlock 直接写入区块段
+     * raw 模式下除带方块实体的方块外都直接写入；no_updates 模式下会下落的方块直接写入，
+     * 否则 setBlock 仍会调用 onPlace 安排下落；full 模式下只有原方块不带方块实体、流体和红石信号，
+     * 且新方块是不带方块实体的不透明完整方块时直接写入
+     */
+    private boolean canWriteDirectly(PlacementMode placement, BlockState oldState, BlockState state) {
+        if (state.hasBlockEntity()) return false;
+        if (placement == PlacementMode.RAW) return true;
+        if (placement == PlacementMode.NO_UPDATES) return state.getBlock() instanceof FallingBlock;
+        return placement == PlacementMode.FULL
+                && state.isSolidRender(level, pos)
+                && !oldState.hasBlockEntity()
+                && oldState.getFluidState().isEmpty()
+                && !oldState.isSignalSource();
+    }
+
+    // 统一提交计划中等待检查的光照，区块列写完或计划结束时调用，此时涉及的区块仍持有加载票据
+    static void flushRelight(ServerLevel level, RefreshPlan plan) {
+        LongArrayList positions = plan.getPendingRelight();
+        if (positions.isEmpty()) return;
+        LevelLightEngine lightEngine = level.getChunkSource().getLightEngine();
+        BlockPos.MutableBlockPos relightPos = new BlockPos.MutableBlockPos();
+        for (int i = 0; i < positions.size(); i++) {
+            lightEngine.checkBlock(relightPos.set(positions.getLong(i)));
+        }
+        positions.clear();
+    }
+}
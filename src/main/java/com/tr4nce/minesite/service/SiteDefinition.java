@@ -0,0 +1,330 @@
+package com.tr4nce.minesite.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.mojang.logging.LogUtils;
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.registries.ForgeRegistries;
+import net.minecraftforge.server.ServerLifecycleHooks;
+import org.slf4j.Logger;
+
+import java.util.*;
+
+/**
+ * 编译后的矿场配置
+ * 加载配置时一次性解析区域、维度、安全点和各项选项，并把矿石配置解析为方块状态调色板和分层采样表，
+ * 刷新、清除和传送时直接读取字段，不再查询 JSON 或方块注册表。
+ * 配置错误在加载时报告：名称、维度和区域无效时整个矿场无法加载，其它选项无效时使用默认值。
+ * 方块注册表需要已经冻结，只在服务器启动后编译。
+ *
+ * @param safetyPoint 未配置或格式错误时为 null
+ * @param depletionThreshold 触发自动刷新的被挖掘方块数量，0 表示关闭
+ * @param schedule 定时刷新周期，未配置时为 null
+ * @param seed 布局种子，未配置时为 null
+ * @param configHash 区域和矿石配置的哈希，用于布局缓存和检查点
+ */
+record SiteDefinition(String name, Status status, ResourceKey<Level> dimension, MineSiteUtils.RegionBounds bounds,
+                      BlockPos safetyPoint, int priority, PlacementMode placement, boolean minedRefresh,
+                      boolean backgroundRefill, long depletionThreshold, RefreshTimetable.Schedule schedule,
+                      Long seed, boolean snapshot, Palette palette, String configHash) {
+    enum Status {
+        ACTIVE,
+        INACTIVE
+    }
+
+    // 编译后的矿石分布：调色板及按高度分层的采样表
+    record Palette(BlockState[] states, OreLayers sampler) {
+    }
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+    // 矿场权重上限
+    private static final int MAX_PRIORITY = 100;
+
+    boolean isActive() {
+        return status == Status.ACTIVE;
+    }
+
+    // 两个定义是否要求在同一区域写入相同的内容，只有这些配置变化时进行中的任务才需要取消
+    boolean sameTarget(SiteDefinition other) {
+        return status == other.status && dimension.equals(other.dimension)
+                && bounds.equals(other.bounds) && configHash.equals(other.configHash);
+    }
+
+    /**
+     * 检查矿场配置中无法使用默认值的部分：名称、维度、区域和矿石列表的格式
+     * 不访问方块注册表，可以在任意线程调用
+     * @throws IllegalArgumentException 配置无效
+     */
+    static void validate(JsonObject site) {
+        requireString(site, "name");
+        parseDimension(site);
+        parseBounds(site);
+        if (!site.has("mines")) return;
+        if (!site.get("mines").isJsonArray()) {
+            throw new IllegalArgumentException("mines 应为列表");
+        }
+        for (JsonElement element : site.getAsJsonArray("mines")) {
+            if (!element.isJsonObject()) {
+                throw new IllegalArgumentException("mines 中存在不是对象的项: " + element);
+            }
+            JsonObject mine = element.getAsJsonObject();
+            requireString(mine, "block");
+            try {
+                mine.get("weight").getAsInt();
+                for (String key : new String[]{"minY", "maxY", "cluster"}) {
+                    if (mine.has(key)) {
+                        mine.get(key).getAsInt();
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("矿石 " + mine.get("block").getAsString() + " 的权重或高度配置无效", e);
+            }
+        }
+    }
+
+    /**
+     * 编译矿场配置
+     * @throws IllegalArgumentException 名称、维度、区域或矿石列表的格式无效
+     */
+    static SiteDefinition compile(JsonObject site) {
+        validate(site);
+        String name = site.get("name").getAsString();
+        ResourceKey<Level> dimension = parseDimension(site);
+        MineSiteUtils.RegionBounds bounds = parseBounds(site);
+        checkBuildHeight(dimension, bounds);
+
+        Status status = "active".equals(parseString(name, site, "status", "inactive"))
+                ? Status.ACTIVE : Status.INACTIVE;
+
+        return new SiteDefinition(name, status, dimension, bounds,
+                parseSafetyPoint(name, site),
+                parsePriority(name, site),
+                parsePlacement(name, site),
+                "mined".equalsIgnoreCase(parseString(name, site, "refreshMode", "full")),
+                parseBoolean(name, site, "backgroundRefill"),
+                parseDepletionThreshold(name, site, bounds),
+                parseSchedule(name, site),
+                parseSeed(name, site),
+                parseBoolean(name, site, "snapshot"),
+                compilePalette(name, site, bounds),
+                LayoutCache.configHash(site));
+    }
+
+    private static String requireString(JsonObject site, String key) {
+        if (!site.has(key) || !site.get(key).isJsonPrimitive()) {
+            throw new IllegalArgumentException("缺少 " + key + " 配置");
+        }
+        return site.get(key).getAsString();
+    }
+
+    private static ResourceKey<Level> parseDimension(JsonObject site) {
+        ResourceLocation dimLoc = ResourceLocation.tryParse(requireString(site, "world"));
+        if (dimLoc == null) {
+            throw new IllegalArgumentException("无效的维度: " + site.get("world").getAsString());
+        }
+        return ResourceKey.create(Registries.DIMENSION, dimLoc);
+    }
+
+    private static MineSiteUtils.RegionBounds parseBounds(JsonObject site) {
+        String pos1 = requireString(site, "pos1");
+        String pos2 = requireString(site, "pos2");
+        try {
+            return MineSiteUtils.RegionBounds.fromCorners(MineSiteUtils.parseBlockPos(pos1), MineSiteUtils.parseBlockPos(pos2));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的区域: " + e.getMessage(), e);
+        }
+    }
+
+    // 区域必须在维度的建筑高度之内，维度尚未加载时不检查（写入时仍会跳过超出的区块段）
+    private static void checkBuildHeight(ResourceKey<Level> dimension, MineSiteUtils.RegionBounds bounds) {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        ServerLevel level = server == null ? null : server.getLevel(dimension);
+        if (level == null) return;
+        if (bounds.getMinY() < level.getMinBuildHeight() || bounds.getMaxY() >= level.getMaxBuildHeight()) {
+            throw new IllegalArgumentException("区域高度 " + bounds.getMinY() + "~" + bounds.getMaxY() + " 超出维度 "
+                    + dimension.location() + " 的建筑高度 " + level.getMinBuildHeight() + "~" + (level.getMaxBuildHeight() - 1));
+        }
+    }
+
+    // 字符串选项，未配置或不是字符串时使用默认值
+    private static String parseString(String name, JsonObject site, String key, String defaultValue) {
+        if (!site.has(key)) return defaultValue;
+        JsonElement value = site.get(key);
+        if (!value.isJsonPrimitive()) {
+            LOGGER.warn("矿场 {} 的 {} 配置无效: {}，将使用 {}", name, key, value, defaultValue);
+            return defaultValue;
+        }
+        return value.getAsString();
+    }
+
+    // 开关选项，只接受 true/false，未配置或无效时为 false
+    private static boolean parseBoolean(String name, JsonObject site, String key) {
+        if (!site.has(key)) return false;
+        JsonElement value = site.get(key);
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isBoolean()) {
+            LOGGER.warn("矿场 {} 的 {} 配置无效: {}，将使用 false", name, key, value);
+            return false;
+        }
+        return value.getAsBoolean();
+    }
+
+    // 安全点未配置或格式错误时返回 null
+    private static BlockPos parseSafetyPoint(String name, JsonObject site) {
+        String safetyPoint = parseString(name, site, "safetyPoint", "");
+        if (safetyPoint.isBlank()) {
+            LOGGER.warn("矿场 {} 缺少安全点(safetyPoint)配置！", name);
+            return null;
+        }
+        try {
+            return MineSiteUtils.parseBlockPos(safetyPoint);
+        } catch (Exception e) {
+            LOGGER.error("矿场 {} 的安全点配置无效: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    // 全局调度中的权重，默认为 1
+    private static int parsePriority(String name, JsonObject site) {
+        if (!site.has("priority")) return 1;
+        try {
+            return Math.max(1, Math.min(MAX_PRIORITY, site.get("priority").getAsInt()));
+        } catch (Exception e) {
+            LOGGER.warn("矿场 {} 的权重配置无效: {}，将使用 1", name, site.get("priority"));
+            return 1;
+        }
+    }
+
+    // 放置模式，未配置或无法识别时使用与原版相同的 full，新建矿场的模板中默认为 raw
+    private static PlacementMode parsePlacement(String name, JsonObject site) {
+        if (!site.has("placement")) return PlacementMode.FULL;
+        PlacementMode mode;
+        try {
+            mode = PlacementMode.byId(site.get("placement").getAsString());
+        } catch (Exception e) {
+            mode = null;
+        }
+        if (mode == null) {
+            LOGGER.warn("矿场 {} 的放置模式配置无效: {}，将使用 full", name, site.get("placement"));
+            return PlacementMode.FULL;
+        }
+        return mode;
+    }
+
+    // 挖掘比例达到 refreshAtDepletion（百分比）时自动刷新
+    private static long parseDepletionThreshold(String name, JsonObject site, MineSiteUtils.RegionBounds bounds) {
+        if (!site.has("refreshAtDepletion")) return 0;
+        double percent;
+        try {
+            percent = site.get("refreshAtDepletion").getAsDouble();
+        } catch (Exception e) {
+            LOGGER.warn("矿场 {} 的 refreshAtDepletion 配置无效: {}，将关闭自动刷新", name, site.get("refreshAtDepletion"));
+            return 0;
+        }
+        if (percent > 0 && percent <= 100) {
+            return Math.max(1, (long) Math.ceil(bounds.getVolume() * percent / 100));
+        }
+        if (percent != 0) {
+            LOGGER.warn("矿场 {} 的 refreshAtDepletion 应在 0-100 之间: {}", name, percent);
+        }
+        return 0;
+    }
+
+    private static RefreshTimetable.Schedule parseSchedule(String name, JsonObject site) {
+        if (!site.has("schedule")) return null;
+        try {
+            return RefreshTimetable.parse(site.getAsJsonObject("schedule"));
+        } catch (Exception e) {
+            LOGGER.error("矿场 {} 的定时刷新配置无效: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    private static Long parseSeed(String name, JsonObject site) {
+        if (!site.has("seed")) return null;
+        try {
+            return site.get("seed").getAsLong();
+        } catch (Exception e) {
+            LOGGER.warn("矿场 {} 的种子配置无效，将使用随机布局", name);
+            return null;
+        }
+    }
+
+    /**
+     * 编译矿场的矿石分布
+     * 每项矿石可选 minY/maxY（含）限定出现的高度，默认为整个矿场；可选 cluster 指定矿脉大小。
+     * 同一方块的多项配置共用调色板中的同一项，没有任何矿石覆盖的高度填充石头。
+     */
+    private static Palette compilePalette(String name, JsonObject site, MineSiteUtils.RegionBounds bounds) {
+        List<BlockState> states = new ArrayList<>();
+        Map<BlockState, Integer> paletteIndices = new HashMap<>();
+        List<OreLayers.Entry> entries = new ArrayList<>();
+
+        if (site.has("mines") && site.get("mines").isJsonArray()) {
+            for (JsonElement element : site.getAsJsonArray("mines")) {
+                JsonObject mine = element.getAsJsonObject();
+                String blockId = mine.get("block").getAsString();
+                int weight = mine.get("weight").getAsInt();
+                if (weight <= 0) continue;
+
+                ResourceLocation blockLoc = ResourceLocation.tryParse(blockId);
+                if (blockLoc == null || !ForgeRegistries.BLOCKS.containsKey(blockLoc)) {
+                    LOGGER.warn("矿场 {} 的矿石 {} 不存在，已忽略", name, blockId);
+                    continue;
+                }
+
+                int minY = mine.has("minY") ? mine.get("minY").getAsInt() : bounds.getMinY();
+                int maxY = mine.has("maxY") ? mine.get("maxY").getAsInt() : bounds.getMaxY();
+                if (minY > maxY || maxY < bounds.getMinY() || minY > bounds.getMaxY()) {
+                    LOGGER.warn("矿场 {} 的矿石 {} 高度范围 {}~{} 不在矿场内，已忽略", name, blockId, minY, maxY);
+                    continue;
+                }
+                int cluster = mine.has("cluster") ? Math.max(1, mine.get("cluster").getAsInt()) : 1;
+
+                BlockState state = ForgeRegistries.BLOCKS.getValue(blockLoc).defaultBlockState();
+                Integer index = paletteIndices.get(state);
+                if (index == null) {
+                    if (states.size() >= RefreshPlan.MAX_PALETTE_SIZE) {
+                        LOGGER.warn("矿石种类超过 {} 种，忽略多余配置: {}", RefreshPlan.MAX_PALETTE_SIZE, blockId);
+                        continue;
+                    }
+                    index = states.size();
+                    states.add(state);
+                    paletteIndices.put(state, index);
+                }
+                entries.add(new OreLayers.Entry(index, weight, minY, maxY, cluster));
+            }
+        } else {
+            LOGGER.warn("矿场 {} 缺少矿石(mines)配置，将填充石头", name);
+        }
+
+        // 存在没有矿石覆盖的高度（或没有配置有效的方块）时，用石头填充
+        int fallback = -1;
+        for (int y = bounds.getMinY(); y <= bounds.getMaxY() && fallback < 0; y++) {
+            int layerY = y;
+            if (entries.stream().noneMatch(entry -> entry.covers(layerY))) {
+                BlockState stone = Blocks.STONE.defaultBlockState();
+                fallback = paletteIndices.computeIfAbsent(stone, key -> {
+                    states.add(key);
+                    return states.size() - 1;
+                });
+            }
+        }
+        if (fallback >= RefreshPlan.MAX_PALETTE_SIZE) {
+            // 调色板已满时用第一种矿石填充
+            states.remove(fallback);
+            fallback = 0;
+        }
+
+        OreLayers layers = OreLayers.compile(entries, bounds.getMinY(), bounds.getMaxY(), states.size(), Math.max(fallback, 0));
+        return new Palette(states.toArray(new BlockState[0]), layers);
+    }
+}
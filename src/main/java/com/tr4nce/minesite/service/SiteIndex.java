@@ -0,0 +1,131 @@
+package com.tr4nce.minesite.service;
+
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * 矿场区域的空间索引
+ * 按维度和区块坐标保存与该区块相交的矿场，查询某个坐标所在的矿场只需查看一个区块，
+ * 与矿场总数无关。配置变化时只更新区域发生变化的矿场。
+ * 只在服务器线程访问（模组初始化时的首次加载除外）。
+ */
+class SiteIndex {
+    record Area(String siteName, ResourceKey<Level> dimension, MineSiteUtils.RegionBounds bounds) {
+        boolean intersects(MineSiteUtils.RegionBounds other) {
+            return bounds.getMinX() <= other.getMaxX() && bounds.getMaxX() >= other.getMinX()
+                    && bounds.getMinY() <= other.getMaxY() && bounds.getMaxY() >= other.getMinY()
+                    && bounds.getMinZ() <= other.getMaxZ() && bounds.getMaxZ() >= other.getMinZ();
+        }
+    }
+
+    private final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<List<Area>>> chunks = new HashMap<>();
+    private final Map<String, Area> areas = new HashMap<>();
+
+    Area get(String siteName) {
+        return areas.get(siteName);
+    }
+
+    // 添加或更新矿场区域，区域未变化时不做任何操作
+    void put(String siteName, ResourceKey<Level> dimension, MineSiteUtils.RegionBounds bounds) {
+        Area existing = areas.get(siteName);
+        if (existing != null && existing.dimension().equals(dimension) && existing.bounds().equals(bounds)) return;
+        if (existing != null) {
+            unlink(existing);
+        }
+        Area area = new Area(siteName, dimension, bounds);
+        areas.put(siteName, area);
+        Long2ObjectOpenHashMap<List<Area>> levelChunks = chunks.computeIfAbsent(dimension, key -> new Long2ObjectOpenHashMap<>());
+        forEachChunk(bounds, chunk -> {
+            List<Area> list = levelChunks.get(chunk);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                levelChunks.put(chunk, list);
+            }
+            list.add(area);
+        });
+    }
+
+    void remove(String siteName) {
+        Area area = areas.remove(siteName);
+        if (area != null) {
+            unlink(area);
+        }
+    }
+
+    // 移除不在集合中的矿场
+    void retainAll(Set<String> siteNames) {
+        new ArrayList<>(areas.keySet()).forEach(siteName -> {
+            if (!siteNames.contains(siteName)) {
+                remove(siteName);
+            }
+        });
+    }
+
+    void clear() {
+        chunks.clear();
+        areas.clear();
+    }
+
+    // 包含指定坐标的矿场，不在任何矿场内时返回空列表
+    List<Area> at(ResourceKey<Level> dimension, int x, int y, int z) {
+        Long2ObjectOpenHashMap<List<Area>> levelChunks = chunks.get(dimension);
+        if (levelChunks == null) return List.of();
+        List<Area> candidates = levelChunks.get(ChunkPos.asLong(x >> 4, z >> 4));
+        if (candidates == null) return List.of();
+        List<Area> result = null;
+        for (Area area : candidates) {
+            if (area.bounds().contains(x, y, z)) {
+                if (result == null) result = new ArrayList<>(1);
+                result.add(area);
+            }
+        }
+        return result == null ? List.of() : result;
+    }
+
+    // 与指定区域相交的矿场
+    List<Area> intersecting(ResourceKey<Level> dimension, MineSiteUtils.RegionBounds bounds) {
+        Long2ObjectOpenHashMap<List<Area>> levelChunks = chunks.get(dimension);
+        if (levelChunks == null) return List.of();
+        Set<Area> result = new LinkedHashSet<>();
+        forEachChunk(bounds, chunk -> {
+            List<Area> candidates = levelChunks.get(chunk);
+            if (candidates == null) return;
+            for (Area area : candidates) {
+                if (area.intersects(bounds)) {
+                    result.add(area);
+                }
+            }
+        });
+        return new ArrayList<>(result);
+    }
+
+    private void unlink(Area area) {
+        Long2ObjectOpenHashMap<List<Area>> levelChunks = chunks.get(area.dimension());
+        if (levelChunks == null) return;
+        forEachChunk(area.bounds(), chunk -> {
+            List<Area> list = levelChunks.get(chunk);
+            if (list == null) return;
+            list.remove(area);
+            if (list.isEmpty()) {
+                levelChunks.remove(chunk);
+            }
+        });
+        if (levelChunks.isEmpty()) {
+            chunks.remove(area.dimension());
+        }
+    }
+
+    private static void forEachChunk(MineSiteUtils.RegionBounds bounds, LongConsumer action) {
+        for (int chunkX = bounds.getMinX() >> 4; chunkX <= bounds.getMaxX() >> 4; chunkX++) {
+            for (int chunkZ = bounds.getMinZ() >> 4; chunkZ <= bounds.getMaxZ() >> 4; chunkZ++) {
+                action.accept(ChunkPos.asLong(chunkX, chunkZ));
+            }
+        }
+    }
+}
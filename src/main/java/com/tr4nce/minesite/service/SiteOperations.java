@@ -0,0 +1,137 @@
+package com.tr4nce.minesite.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 矿场进行中的操作登记表
+ * 每个矿场同一时间只有一个操作，从安排延迟任务开始，到刷新或清除写完为止。
+ * 操作期间安排的延迟任务都记录在操作上，取消时一并取消。
+ * 可以在任意线程访问（HTTP 请求会在 HTTP 线程上登记操作）。
+ */
+class SiteOperations {
+    enum Kind {
+        REFRESH("刷新"),
+        OPEN("开启"),
+        CLOSE("关闭"),
+        CLEAR("清除"),
+        RESTORE("恢复");
+
+        private final String displayName;
+
+        Kind(String displayName) {
+            this.displayName = displayName;
+        }
+
+        String getDisplayName() {
+            return displayName;
+        }
+
+        // 开启以刷新结束，关闭以清除结束，同一方向的操作可以合并
+        boolean isRefill() {
+            return this == REFRESH || this == OPEN;
+        }
+    }
+
+    static final class Operation {
+        private final Kind kind;
+        private final List<TickScheduler.Task> tasks = new ArrayList<>();
+        private volatile boolean cancelled;
+        // 延迟执行的开启或关闭命令已经接续了该操作
+        private volatile boolean continued;
+        // 操作最终登记的刷新任务
+        private volatile RefreshPlan plan;
+
+        private Operation(Kind kind) {
+            this.kind = kind;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        boolean isContinued() {
+            return continued;
+        }
+
+        // 记录操作安排的延迟任务，操作已取消时立即取消该任务
+        synchronized void track(TickScheduler.Task task) {
+            if (cancelled) {
+                task.cancel();
+            } else {
+                tasks.add(task);
+            }
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            tasks.forEach(TickScheduler.Task::cancel);
+            tasks.clear();
+        }
+    }
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * 为矿场登记新操作
+     * @return 矿场已有进行中的操作时返回 null
+     */
+    Operation begin(String siteName, Kind kind) {
+        Operation operation = new Operation(kind);
+        return operations.putIfAbsent(siteName, operation) == null ? operation : null;
+    }
+
+    Operation get(String siteName) {
+        return operations.get(siteName);
+    }
+
+    /**
+     * 接续进行中的指定类型操作，每个操作只能被接续一次
+     * @return 没有可接续的操作时返回 null
+     */
+    Operation continueWith(String siteName, Kind kind) {
+        Operation operation = operations.get(siteName);
+        if (operation == null || operation.kind != kind) return null;
+        synchronized (operation) {
+            if (operation.continued || operation.cancelled) return null;
+            operation.continued = true;
+        }
+        return operation;
+    }
+
+    // 刷新任务登记时关联到矿场当前的操作
+    void attachPlan(String siteName, RefreshPlan plan) {
+        Operation operation = operations.get(siteName);
+        if (operation != null && operation.plan == null) {
+            operation.plan = plan;
+        }
+    }
+
+    void finish(String siteName, Operation operation) {
+        operations.remove(siteName, operation);
+    }
+
+    // 刷新任务结束（完成、失败或被丢弃）时结束其所属的操作
+    void finishPlan(String siteName, RefreshPlan plan) {
+        operations.computeIfPresent(siteName, (key, operation) -> operation.plan == plan ? null : operation);
+    }
+
+    /**
+     * 取消矿场的操作及其未执行的延迟任务
+     * @return 被取消的操作，没有进行中的操作时返回 null
+     */
+    Operation cancel(String siteName) {
+        Operation operation = operations.remove(siteName);
+        if (operation != null) {
+            operation.cancel();
+        }
+        return operation;
+    }
+
+    void clear() {
+        operations.values().forEach(Operation::cancel);
+        operations.clear();
+    }
+}
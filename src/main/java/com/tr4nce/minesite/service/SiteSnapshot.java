@@ -0,0 +1,382 @@
+package com.tr4nce.minesite.service;
+
+import com.mojang.logging.LogUtils;
+import com.tr4nce.minesite.config.Config;
+import com.tr4nce.minesite.utils.MineSiteUtils;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 刷新前的区域快照
+ * 刷新或清除第一次写入某个区块段之前，先读取该区块段在矿场内的部分：
+ * 区块段内的方块状态调色板和索引，以及方块实体的 NBT，交给后台线程追加到 gzip 压缩的快照文件。
+ * 没有被写入的区块段不会被记录，恢复时也保持不变。每个矿场只保留最近的若干份快照。
+ */
+class SiteSnapshot {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x4D53534E; // "MSSN"
+    private static final int VERSION = 2;
+    private static final String DIRECTORY = "snapshots";
+    private static final String EXTENSION = ".snap";
+    // 恢复时调色板第 0 项表示保持原样
+    private static final int KEEP_INDEX = 0;
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "MineSite-Snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 区块段在矿场内的部分，调色板只有一项时不存储索引
+    private record Section(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ,
+                           BlockState[] palette, short[] indices, List<CompoundTag> blockEntities) {
+    }
+
+    /**
+     * 读取快照得到的恢复数据
+     * @param plan 按快照区域生成的恢复计划，快照中没有记录的位置保持不变
+     * @param dimension 记录快照时矿场所在的维度
+     * @param bounds 记录快照时的矿场区域
+     */
+    record Restore(RefreshPlan plan, Path file, String dimension, MineSiteUtils.RegionBounds bounds) {
+    }
+
+    // 一次刷新的快照写入器，记录操作只能在服务器线程调用，结束可以在任意线程调用
+    static final class Writer {
+        private final String siteName;
+        private final String world;
+        private final String dimension;
+        private final MineSiteUtils.RegionBounds bounds;
+        private final Path file;
+        private final Path temp;
+        // 已经记录的区块段，仅在服务器线程访问
+        private final LongOpenHashSet captured = new LongOpenHashSet();
+        private volatile boolean finished;
+        // 仅在快照线程访问，关闭后到达的区块段直接丢弃
+        private DataOutputStream out;
+        private boolean failed;
+        private boolean closed;
+
+        private Writer(String siteName, String world, String dimension, MineSiteUtils.RegionBounds bounds) {
+            this.siteName = siteName;
+            this.world = world;
+            this.dimension = dimension;
+            this.bounds = bounds;
+            this.file = directory(siteName).resolve(System.currentTimeMillis() + EXTENSION);
+            this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+        }
+
+        /**
+         * 在写入区块段之前记录它在矿场内的部分，每个区块段只记录一次
+         * @return 读取的方块数量，计入刷新开销
+         */
+        int capture(LevelChunk chunk, int sectionY) {
+            // 超出维度建筑高度的区块段不会被写入，无需记录
+            if (finished || sectionY < chunk.getMinSection() || sectionY >= chunk.getMaxSection()) return 0;
+            int chunkX = chunk.getPos().x;
+            int chunkZ = chunk.getPos().z;
+            if (!captured.add(SectionPos.asLong(chunkX, sectionY, chunkZ))) return 0;
+
+            int minX = Math.max(bounds.getMinX(), chunkX << 4);
+            int minY = Math.max(bounds.getMinY(), sectionY << 4);
+            int minZ = Math.max(bounds.getMinZ(), chunkZ << 4);
+            int sizeX = Math.min(bounds.getMaxX(), (chunkX << 4) + 15) - minX + 1;
+            int sizeY = Math.min(bounds.getMaxY(), (sectionY << 4) + 15) - minY + 1;
+            int sizeZ = Math.min(bounds.getMaxZ(), (chunkZ << 4) + 15) - minZ + 1;
+            LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY));
+
+            List<CompoundTag> blockEntities = new ArrayList<>();
+            Section record;
+            if (section.hasOnlyAir()) {
+                record = new Section(minX, minY, minZ, sizeX, sizeY, sizeZ,
+                        new BlockState[]{Blocks.AIR.defaultBlockState()}, null, blockEntities);
+            } else {
+                Reference2IntOpenHashMap<BlockState> palette = new Reference2IntOpenHashMap<>();
+                List<BlockState> states = new ArrayList<>();
+                short[] indices = new short[sizeX * sizeY * sizeZ];
+                BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+                int i = 0;
+                for (int y = minY; y < minY + sizeY; y++) {
+                    for (int z = minZ; z < minZ + sizeZ; z++) {
+                        for (int x = minX; x < minX + sizeX; x++) {
+                            BlockState state = section.getBlockState(x & 15, y & 15, z & 15);
+                            int index = palette.getOrDefault(state, -1);
+                            if (index < 0) {
+                                index = states.size();
+                                palette.put(state, index);
+                                states.add(state);
+                            }
+                            indices[i++] = (short) index;
+                            if (state.hasBlockEntity()) {
+                                BlockEntity blockEntity = chunk.getBlockEntity(pos.set(x, y, z));
+                                if (blockEntity != null) {
+                                    blockEntities.add(blockEntity.saveWithFullMetadata());
+                                }
+                            }
+                        }
+                    }
+                }
+                record = new Section(minX, minY, minZ, sizeX, sizeY, sizeZ, states.toArray(new BlockState[0]),
+                        states.size() == 1 ? null : indices, blockEntities);
+            }
+            IO.execute(() -> write(record));
+            return sizeX * sizeY * sizeZ;
+        }
+
+        // 结束快照并清理超出保留数量的旧快照，可以重复调用
+        synchronized void finish() {
+            if (finished) return;
+            finished = true;
+            IO.execute(this::close);
+        }
+
+        private void write(Section section) {
+            if (failed || closed) return;
+            try {
+                if (out == null) {
+                    Files.createDirectories(temp.getParent());
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            new GZIPOutputStream(Files.newOutputStream(temp), 1 << 16), 1 << 16));
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(world);
+                    out.writeUTF(dimension);
+                    out.writeInt(bounds.getMinX());
+                    out.writeInt(bounds.getMinY());
+                    out.writeInt(bounds.getMinZ());
+                    out.writeInt(bounds.getMaxX());
+                    out.writeInt(bounds.getMaxY());
+                    out.writeInt(bounds.getMaxZ());
+                }
+                out.writeBoolean(true);
+                out.writeInt(section.minX());
+                out.writeInt(section.minY());
+                out.writeInt(section.minZ());
+                out.writeByte(section.sizeX());
+                out.writeByte(section.sizeY());
+                out.writeByte(section.sizeZ());
+                out.writeShort(section.palette().length);
+                for (BlockState state : section.palette()) {
+                    NbtIo.write(NbtUtils.writeBlockState(state), out);
+                }
+                if (section.indices() != null) {
+                    for (short index : section.indices()) {
+                        out.writeShort(index);
+                    }
+                }
+                out.writeShort(section.blockEntities().size());
+                for (CompoundTag tag : section.blockEntities()) {
+                    NbtIo.write(tag, out);
+                }
+            } catch (IOException e) {
+                failed = true;
+                LOGGER.error("写入矿场 {} 的快照失败", siteName, e);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if (out == null) return;
+            try {
+                out.writeBoolean(false);
+                out.close();
+                if (failed) {
+                    Files.deleteIfExists(temp);
+                    return;
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.info("矿场 {} 的快照已保存: {}", siteName, file.getFileName());
+            } catch (IOException e) {
+                LOGGER.error("保存矿场 {} 的快照失败", siteName, e);
+                return;
+            }
+            pruneSnapshots(siteName);
+        }
+    }
+
+    // 开始为一次刷新记录快照，文件在第一次记录区块段时创建
+    static Writer begin(String siteName, String world, String dimension, MineSiteUtils.RegionBounds bounds) {
+        return new Writer(siteName, world, dimension, bounds);
+    }
+
+    // 等待所有已提交的快照写入完成
+    static CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(() -> {
+        }, IO);
+    }
+
+    /**
+     * 在后台读取矿场最新的快照
+     * @return 没有可用快照时结果为 null
+     */
+    static CompletableFuture<Restore> loadLatest(String siteName, String world) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Path> snapshots = listSnapshots(siteName);
+            if (snapshots.isEmpty()) return null;
+            Path file = snapshots.get(snapshots.size() - 1);
+            try {
+                return read(file, world);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, IO);
+    }
+
+    private static Restore read(Path file, String world) throws IOException {
+        String dimension;
+        MineSiteUtils.RegionBounds bounds;
+        List<Section> sections = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), 1 << 16), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported snapshot format: " + file.getFileName());
+            }
+            if (!world.equals(in.readUTF())) {
+                throw new IOException("Snapshot belongs to another world: " + file.getFileName());
+            }
+            dimension = in.readUTF();
+            bounds = MineSiteUtils.RegionBounds.fromCorners(
+                    new BlockPos(in.readInt(), in.readInt(), in.readInt()),
+                    new BlockPos(in.readInt(), in.readInt(), in.readInt()));
+            while (in.readBoolean()) {
+                sections.add(readSection(in));
+            }
+        }
+
+        // 合并所有区块段的调色板，第 0 项保留给没有记录的位置
+        Map<BlockState, Integer> paletteIndices = new HashMap<>();
+        List<BlockState> palette = new ArrayList<>();
+        palette.add(Blocks.AIR.defaultBlockState());
+        for (Section section : sections) {
+            for (BlockState state : section.palette()) {
+                if (paletteIndices.containsKey(state)) continue;
+                if (palette.size() >= RefreshPlan.MAX_WIDE_PALETTE_SIZE) {
+                    throw new IOException("Snapshot has more than " + (RefreshPlan.MAX_WIDE_PALETTE_SIZE - 1) + " block states");
+                }
+                paletteIndices.put(state, palette.size());
+                palette.add(state);
+            }
+        }
+
+        // 建筑区域的方块状态（各朝向、含水等）很容易超过 255 种，恢复计划的索引以 short 存储
+        RefreshPlan plan = RefreshPlan.withWidePalette(bounds, palette.toArray(new BlockState[0]));
+        plan.setKeepIndex(KEEP_INDEX);
+        short[][] columns = new short[plan.getColumnCount()][];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = new short[plan.getColumnSize(column)];
+        }
+        Int2ObjectOpenHashMap<List<CompoundTag>> blockEntities = new Int2ObjectOpenHashMap<>();
+        int minChunkX = bounds.getMinX() >> 4;
+        int minChunkZ = bounds.getMinZ() >> 4;
+        int chunkCountX = (bounds.getMaxX() >> 4) - minChunkX + 1;
+
+        for (Section section : sections) {
+            int column = ((section.minZ() >> 4) - minChunkZ) * chunkCountX + ((section.minX() >> 4) - minChunkX);
+            int columnMinX = Math.max(bounds.getMinX(), section.minX() & ~15);
+            int columnMinZ = Math.max(bounds.getMinZ(), section.minZ() & ~15);
+            int columnSizeX = plan.getColumnSizeX(column);
+            int layerSize = plan.getColumnLayerSize(column);
+            short[] data = columns[column];
+            int i = 0;
+            for (int y = section.minY(); y < section.minY() + section.sizeY(); y++) {
+                for (int z = section.minZ(); z < section.minZ() + section.sizeZ(); z++) {
+                    for (int x = section.minX(); x < section.minX() + section.sizeX(); x++) {
+                        BlockState state = section.palette()[section.indices() == null ? 0 : section.indices()[i]];
+                        i++;
+                        int offset = (y - bounds.getMinY()) * layerSize + (z - columnMinZ) * columnSizeX + (x - columnMinX);
+                        data[offset] = (short) (int) paletteIndices.get(state);
+                    }
+                }
+            }
+            if (!section.blockEntities().isEmpty()) {
+                blockEntities.computeIfAbsent(column, key -> new ArrayList<>()).addAll(section.blockEntities());
+            }
+        }
+        for (int column = 0; column < columns.length; column++) {
+            plan.setWideColumnData(column, columns[column]);
+        }
+        plan.setRestoreBlockEntities(blockEntities);
+        return new Restore(plan, file, dimension, bounds);
+    }
+
+    private static Section readSection(DataInputStream in) throws IOException {
+        int minX = in.readInt();
+        int minY = in.readInt();
+        int minZ = in.readInt();
+        int sizeX = in.readUnsignedByte();
+        int sizeY = in.readUnsignedByte();
+        int sizeZ = in.readUnsignedByte();
+        BlockState[] palette = new BlockState[in.readUnsignedShort()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = NbtUtils.readBlockState(BuiltInRegistries.BLOCK.asLookup(), NbtIo.read(in));
+        }
+        short[] indices = null;
+        if (palette.length > 1) {
+            indices = new short[sizeX * sizeY * sizeZ];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = in.readShort();
+            }
+        }
+        List<CompoundTag> blockEntities = new ArrayList<>();
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            blockEntities.add(NbtIo.read(in));
+        }
+        return new Section(minX, minY, minZ, sizeX, sizeY, sizeZ, palette, indices, blockEntities);
+    }
+
+    // 按时间从旧到新排列的快照文件
+    private static List<Path> listSnapshots(String siteName) {
+        Path directory = directory(siteName);
+        if (!Files.isDirectory(directory)) return List.of();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(EXTENSION))
+                    .sorted(Comparator.comparing(file -> file.getFileName().toString(),
+                            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder())))
+                    .toList();
+        } catch (IOException e) {
+            LOGGER.warn("读取矿场 {} 的快照列表失败: {}", siteName, e.getMessage());
+            return List.of();
+        }
+    }
+
+    // 只保留最近的若干份快照
+    private static void pruneSnapshots(String siteName) {
+        List<Path> snapshots = listSnapshots(siteName);
+        int excess = snapshots.size() - Config.SNAPSHOT_RETENTION.get();
+        for (int i = 0; i < excess; i++) {
+            try {
+                Files.deleteIfExists(snapshots.get(i));
+            } catch (IOException e) {
+                LOGGER.warn("删除旧快照 {} 失败: {}", snapshots.get(i).getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    private static Path directory(String siteName) {
+        return MineSiteConfigService.getDataDir().resolve(DIRECTORY).resolve(MineSiteUtils.toFileName(siteName));
+    }
+}
@@ -0,0 +1,121 @@
+package com.tr4nce.minesite.service;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 由服务器 tick 驱动的延迟任务调度器（哈希时间轮）
+ * 所有倒计时、传送、刷新准备和开关矿场等延迟操作都在这里排队，并在服务器线程上执行，
+ * 不为任何任务创建线程。任意线程都可以提交任务，提交的任务在下一次 tick 时放入时间轮。
+ * 每个槽位保存到期 tick 对槽位数取模相同的任务，每 tick 只检查一个槽位。
+ */
+class TickScheduler {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    static final int TICKS_PER_SECOND = 20;
+    // 槽位数量，必须为 2 的幂
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    // 已排队的延迟任务，可以取消
+    static final class Task {
+        private final Runnable action;
+        private final long delay;
+        // 剩余圈数，为 0 时在所在槽位被访问时执行
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Task(Runnable action, long delay) {
+            this.action = action;
+            this.delay = delay;
+        }
+
+        // 取消任务，可以在任意线程调用；已经执行的任务不受影响
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final List<Task>[] wheel = new List[WHEEL_SIZE];
+    private static final Queue<Task> incoming = new ConcurrentLinkedQueue<>();
+    // 时间轮当前所在的 tick，仅在服务器线程访问
+    private static long currentTick;
+
+    static {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * 安排延迟任务，可以在任意线程调用
+     * @param delayTicks 延迟的 tick 数，0 表示在下一次 tick 时执行
+     * @param action 在服务器线程上执行的操作
+     */
+    static Task schedule(long delayTicks, Runnable action) {
+        Task task = new Task(action, Math.max(0, delayTicks));
+        incoming.add(task);
+        return task;
+    }
+
+    // 按秒安排延迟任务
+    static Task scheduleSeconds(long delaySeconds, Runnable action) {
+        return schedule(delaySeconds * TICKS_PER_SECOND, action);
+    }
+
+    // 推进一个 tick 并执行到期的任务，只能在服务器线程调用
+    static void tick() {
+        Task task;
+        while ((task = incoming.poll()) != null) {
+            insert(task);
+        }
+        currentTick++;
+
+        List<Task> slot = wheel[(int) (currentTick & WHEEL_MASK)];
+        if (slot.isEmpty()) return;
+        // 执行过程中新安排的任务会进入 incoming，不会修改当前槽位
+        List<Task> due = new ArrayList<>();
+        slot.removeIf(entry -> {
+            if (entry.cancelled) return true;
+            if (entry.rounds > 0) {
+                entry.rounds--;
+                return false;
+            }
+            due.add(entry);
+            return true;
+        });
+        for (Task entry : due) {
+            if (entry.cancelled) continue;
+            try {
+                entry.action.run();
+            } catch (Exception e) {
+                LOGGER.error("执行延迟任务失败", e);
+            }
+        }
+    }
+
+    // 丢弃所有未执行的任务，服务器关闭时调用
+    static void clear() {
+        incoming.clear();
+        for (List<Task> slot : wheel) {
+            slot.clear();
+        }
+    }
+
+    // 放入到期 tick 对应的槽位，延迟 0 的任务与延迟 1 相同，在即将到来的 tick 执行
+    private static void insert(Task task) {
+        long due = currentTick + Math.max(1, task.delay);
+        // 到期之前该槽位还会被经过的次数
+        task.rounds = (due - currentTick - 1) / WHEEL_SIZE;
+        wheel[(int) (due & WHEEL_MASK)].add(task);
+    }
+}
@@ -0,0 +1,95 @@
+package com.tr4nce.minesite.utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * 别名法（Vose）离散分布
+ * 构建一次后不可变，可在多个线程间共享；每次采样只需一次随机数和一次查表，
+ * 与权重项数量无关。
+ */
+public final class AliasTable {
+    private final double[] probability;
+    private final int[] alias;
+
+    private AliasTable(double[] probability, int[] alias) {
+        this.probability = probability;
+        this.alias = alias;
+    }
+
+    /**
+     * 根据权重构建分布
+     * @param weights 各项权重，必须为非负数且总和大于 0
+     */
+    public static AliasTable of(double[] weights) {
+        int n = weights.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("Weights must not be empty");
+        }
+
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0 || Double.isNaN(weight)) {
+                throw new IllegalArgumentException("Weights must be non-negative");
+            }
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Total weight must be positive");
+        }
+
+        double[] probability = new double[n];
+        int[] alias = new int[n];
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+
+        // 将权重缩放为平均值为 1 的概率，并按是否小于 1 分组
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        // 每次用一个大项填满一个小项的剩余部分
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // 剩余项由于浮点误差可能略偏离 1，直接视为 1
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1.0;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1.0;
+        }
+        return new AliasTable(probability, alias);
+    }
+
+    public int size() {
+        return probability.length;
+    }
+
+    // 常数时间采样，一次随机数同时决定列和是否使用别名
+    public int sample(SplittableRandom random) {
+        double u = random.nextDouble() * probability.length;
+        int column = (int) u;
+        if (column >= probability.length) {
+            column = probability.length - 1;
+        }
+        return u - column < probability[column] ? column : alias[column];
+    }
+}
@@ -2,6 +2,8 @@ package com.tr4nce.minesite.utils;
 
 import net.minecraft.core.BlockPos;
 
+import java.util.Objects;
+
 public class MineSiteUtils {
     // 解析方块位置
     public static BlockPos parseBlockPos(String posStr) {
@@ -13,7 +15,7 @@ public class MineSiteUtils {
     }
 
     // 计算每秒处理的方块数
-    public static double calculateBlocksPerSecond(int blocks, long nanoTime) {
+    public static double calculateBlocksPerSecond(long blocks, long nanoTime) {
         if (nanoTime == 0) return 0;
         double seconds = nanoTime / 1_000_000_000.0;
         return seconds > 0 ? blocks / seconds : blocks;
@@ -24,6 +26,11 @@ public class MineSiteUtils {
         return nanoTime / 1_000_000.0;
     }
 
+    // 由矿场名生成文件名，特殊字符（包括点号）替换为下划线，并附加名称哈希避免冲突
+    public static String toFileName(String siteName) {
+        return siteName.replaceAll("[^A-Za-z0-9_\\-]", "_") + "-" + Integer.toHexString(siteName.hashCode());
+    }
+
     // 秒换算
     public static String secondsToTime(long seconds) {
         long hours = seconds / 3600;
@@ -77,5 +84,38 @@ public class MineSiteUtils {
         public int getMaxX() { return maxX; }
         public int getMaxY() { return maxY; }
         public int getMaxZ() { return maxZ; }
+
+        // 各轴方向的长度
+        public int getSizeX() { return maxX - minX + 1; }
+        public int getSizeY() { return maxY - minY + 1; }
+        public int getSizeZ() { return maxZ - minZ + 1; }
+
+        // 区域总方块数（使用 long 避免大区域溢出）
+        public long getVolume() {
+            return (long) getSizeX() * getSizeY() * getSizeZ();
+        }
+
+        // 判断坐标是否位于区域内
+        public boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+        // 坐标在区域内的线性偏移（X 最快、Y 最慢），坐标必须位于区域内
+        public long indexOf(int x, int y, int z) {
+            return ((long) (y - minY) * getSizeZ() + (z - minZ)) * getSizeX() + (x - minX);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RegionBounds other)) return false;
+            return minX == other.minX && minY == other.minY && minZ == other.minZ
+                    && maxX == other.maxX && maxY == other.maxY && maxZ == other.maxZ;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(minX, minY, minZ, maxX, maxY, maxZ);
+        }
     }
 }
@@ -114,7 +114,7 @@ public class RegionSelector {
             int width = maxX - minX + 1;
             int height = maxY - minY + 1;
             int depth = maxZ - minZ + 1;
-            int volume = width * height * depth;
+            long volume = (long) width * height * depth;
 
             player.sendSystemMessage(
                     Component.literal("§a区域大小: §e" + width + " x " + height + " x " + depth + " (" + volume + "个方块)")